@@ -28,11 +28,16 @@ import javax.vecmath.Vector3f;
 
 
 public interface CMBioObj {
+	//Collision filter groups
+	public static final short CELL_GROUP = 1, WALL_GROUP = 2, MOLECULE_GROUP = 4, ALL_GROUPS = -1;
 	
 	public void collided(CMBioObj c, ManifoldPoint mp, long collID);
 	public CollisionShape getCollisionShape();
 	public CMRigidBody getRigidBody();
 	public void updateObject();
+	//Updates state that belongs only to this object. May run at the same time as
+	//other objects' updates, so it must not touch the rigid body or the dynamics world.
+	public void updateInternalState();
 	public Vector3f getColor3Vector();
 	public void setVisible(boolean v);
 	public boolean isVisible();
@@ -47,4 +52,7 @@ public interface CMBioObj {
 	public void clearBound();
 	public void bind();
 	public String finalOutput();
+	//The broadphase only pairs two objects when each one's group is in the other's mask
+	public short getCollisionGroup();
+	public short getCollisionMask();
 }
@@ -112,6 +112,10 @@ public class CMCell implements CMBioObj{
 		//System.out.println("   and cell color is " + getColor3Vector());
 	}
 	
+	public void updateInternalState(){
+		//Simple cells have no internal state
+	}
+	
 	public Vector3f getOrigin(){
 		return this.origin;
 	}
@@ -318,6 +322,14 @@ public class CMCell implements CMBioObj{
 		return toRemove;
 	}
 	
+	public short getCollisionGroup(){
+		return CELL_GROUP;
+	}
+	
+	public short getCollisionMask(){
+		return ALL_GROUPS;
+	}
+	
 	public boolean isBound(){
 		return bound;
 	}
@@ -26,119 +26,85 @@ import java.io.InputStreamReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class CMConcentrationSolver {
 	//Recall units - length: micrometers
 	//time - seconds
-	String outputPath, solverPath;
+	public static final String JAVA_SOLVER = "java", OCTAVE_SOLVER = "octave", ERFC_SOLVER = "erfc";
+	private static final String SOLVER_VERSION = "1"; //part of the cache key. Change it whenever the solver or the Octave template changes its answers
+	private static final double DIFFUSION = 2.0e2; //diffusion coefficient in the pdex1 flux - micrometers^2/second
+	private static final double MAX_STEP_RATIO = 1.0; //largest D*dt/dx^2 for each solver step
+	private static final int STARTUP_STEPS = 4; //backward Euler half steps to damp the jump at the source before Crank-Nicolson
+	private static final double GRID_GROWTH = 1.25; //largest ratio between neighbouring grid spacings
+	private static final double ERFC_TOLERANCE = 1.0e-4; //largest effect of the far end, as a fraction of source, to use the erfc solution
+	
+	String outputPath, solverPath, method;
 	float min_x, max_x, sourceConc, sinkConc;
-	String scriptFile, templateFile, concentrationFile, distanceFile;
-	int timeSteps = 100, distSteps = 200;
-	long time, timeToSteady, lastTime, nextTime;
-	double[] previousConcentrations, nextConcentrations, distances;
-	boolean usePDE;
-	BufferedReader concReader = null;
-	boolean finalTimeReached = false;
+	float windowStart, windowEnd; //distances from source that the simulation looks at - micrometers
+	String templateFile, concentrationFile, distanceFile;
+	int timeSteps = 100, distSteps = 200, windowSteps = 101;
+	double[] grid; //positions the equations are solved at, from min_x to max_x. Finest in the window
+	long time, timeToSteady;
+	String tableFile;
+	double[] distances;
+	long[] solutionTimes; //milliseconds. Only used until the solution is written to the table
+	double[][] solution; //concentration at each solution time and distance from source. Only used until the solution is written to the table
+	CMConcentrationTable table; //the solution, mapped from its binary file
+	long[] tableTimes; //times of the table rows in milliseconds
+	HashMap<Float, float[]> arrivalTimes = new HashMap<Float, float[]>(); //for each threshold, when each distance reaches it
+	boolean usePDE; //otherwise use the closed form erfc solution, or a linear front if the source is below the sink
+	FutureTask<Object> solveTask; //finds the solution in the background
+	volatile boolean solved = false; //set once the solution is ready to read
 	
-	public CMConcentrationSolver(String oPath, String sPath, float minx, float maxx, long t, long tts, float source, float sink){
+	public CMConcentrationSolver(String oPath, String sPath, float minx, float maxx, float ws, float we, long t, long tts, float source, float sink, String m, CMSolutionCache cache){
 		min_x = minx;
 		max_x = maxx;
+		windowStart = Math.max(ws, 0);
+		windowEnd = Math.min(we, max_x - min_x);
 		time = t; //This is time in SECONDS - to conform to differential solving code
 		timeToSteady = tts; //Time in SECONDS - to steady state
 		sourceConc = source;
 		sinkConc = sink;
 		solverPath = sPath;
 		outputPath = oPath;
-		scriptFile = "script";
+		method = m;
 		templateFile = "template";
 		concentrationFile = "concentrations.csv";
 		distanceFile = "distancesFromSource.csv";
-		distances = new double[distSteps];
-		previousConcentrations = new double[distSteps];
-		nextConcentrations = new double[distSteps];
-		for (int i = 0; i < distSteps; i++){
-			previousConcentrations[i] = sinkConc;
-			nextConcentrations[i] = sinkConc;
-			distances[i] = 0;
+		tableFile = "concentrations.bin";
+		if (OCTAVE_SOLVER.equals(method)){
+			//pdepe keeps the mesh it was validated on, so its output matches the historical results
+			grid = makeEvenGrid();
 		}
-		lastTime = 0;
-		nextTime = 0;
+		else{
+			grid = makeGrid();
+		}
+		distances = new double[grid.length];
 		usePDE = sourceConc > sinkConc;
-		if (usePDE){
-			try {
-				writeTemplate();
-				System.out.println("Solving Differential Equations. Please wait.");
-				Process p = Runtime.getRuntime().exec("octave " + outputPath + "/" +scriptFile);
-            
-				BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-				String line=reader.readLine();
-				while (line != null) {    
-					System.out.println(line);
-					line = reader.readLine();
-				}
-				if (p.waitFor() !=0){
-					System.out.println("Error solving concentration differential equations.");
-				}
-
-			}
-			catch(IOException e1) {
-				System.err.println("IOException: " + e1.toString());
-				System.err.println("Cannot use differential equations - using linear gradient");
-				usePDE = false;
-			}
-			catch(InterruptedException e2) {
-				System.err.print("Cannot use differential equations - using linear gradient");
-				usePDE = false;
-			}
+		if (usePDE && (ERFC_SOLVER.equals(method) || (JAVA_SOLVER.equals(method) && isSemiInfinite()))){
+			System.out.println("Using the erfc solution for concentrations.");
+			usePDE = false;
 		}
 		if (usePDE){
-			//read in the distances that were used in the equations
-			try{
-				File distFile = new File(outputPath, distanceFile);
-				FileInputStream fis = new FileInputStream(distFile);
-				InputStreamReader isr = new InputStreamReader(fis);
-				BufferedReader br = new BufferedReader(isr);
-				String line = br.readLine();
-				String[] values = line.split(",");
-				
-				for (int i = 1; i < distSteps; i++){
-					try{
-						distances[i] = Float.parseFloat(values[i]);
-						//System.out.println("distances " + i + ": " + distances[i]);
-					}
-					catch(NumberFormatException e){
-						System.err.println("Error reading distances!");
-						usePDE = false;
-					}
+			//Solve while the simulation sets up. The first concentration query waits for it
+			final CMSolutionCache solutionCache = cache;
+			solveTask = new FutureTask<Object>(new Runnable(){
+				public void run(){
+					prepareSolution(solutionCache);
 				}
-				br.close();
-				isr.close();
-				fis.close();
-			}
-			catch(FileNotFoundException e){
-				System.err.println("Cannot read distance file. Using Linear gradient");
-				usePDE = false;
-			}
-			catch(IOException a){
-				System.err.println("Cannot read distance file. Using Linear gradient");
-				usePDE = false;
-			}
+			}, null);
+			Thread solveThread = new Thread(solveTask, "Concentration solver");
+			solveThread.setDaemon(true);
+			solveThread.start();
 		}
-		if (usePDE){
-			//read in the initial ligand concentrations
-			try{
-				File concFile = new File(outputPath, concentrationFile);
-				FileInputStream fis = new FileInputStream(concFile);
-				InputStreamReader isr = new InputStreamReader(fis);
-				concReader = new BufferedReader(isr);
-				readNextConcentration();
-				readNextConcentration();
-			}
-			catch(FileNotFoundException e){
-				System.err.print("Cannot read concentration file. Using Linear gradient");
-				usePDE = false;
-			}
+		else{
+			solved = true;
 		}
+
 		/*
 		System.out.println("Use PDE? " + usePDE);
 		System.out.println("Testing concentration solver");
@@ -168,13 +134,354 @@ public class CMConcentrationSolver {
 		*/
 	}
 	
-	private void writeTemplate() throws IOException{
-		PrintStream scriptOut = new PrintStream(new File(outputPath, scriptFile));
-		scriptOut.println("addpath(\"" + outputPath + "\");");
-		scriptOut.println("addpath(\"" + solverPath + "\");");
-		scriptOut.println(templateFile);
-		scriptOut.close();
+	private void prepareSolution(CMSolutionCache cache){
+		//Runs on the solver thread. Loads the solution from the cache or solves the PDE, then maps the table
+		String key = CMSolutionCache.makeKey(describeInputs());
+		if (cache != null){
+			table = cache.load(key);
+		}
+		if (table != null){
+			System.out.println("Using cached concentration solution " + cache.getFile(key));
+		}
+		else{
+			if (OCTAVE_SOLVER.equals(method)){
+				usePDE = solveWithOctave();
+			}
+			else{
+				solvePDE();
+			}
+			if (usePDE){
+				usePDE = writeTable(cache, key);
+			}
+		}
+		if (usePDE){
+			distances = new double[table.getNumDistances()];
+			for (int i = 0; i < distances.length; i++){
+				distances[i] = table.getDistance(i);
+			}
+			distSteps = distances.length;
+			tableTimes = new long[table.getNumTimes()];
+			for (int i = 0; i < tableTimes.length; i++){
+				tableTimes[i] = table.getTime(i);
+			}
+		}
+	}
+	
+	private synchronized void awaitSolution(){
+		//Wait for the solver thread to finish before reading the solution
+		if (solved){
+			return;
+		}
+		try{
+			solveTask.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			System.err.println("Interrupted waiting for the concentration solution. Using the erfc solution.");
+			usePDE = false;
+		}
+		catch(ExecutionException e){
+			System.err.println("Error solving concentration differential equations. Using the erfc solution.");
+			System.err.println(e.getCause());
+			usePDE = false;
+		}
+		solved = true;
+	}
+	
+	private boolean isSemiInfinite(){
+		//The far end of the channel is held at 0. Until it is felt, pdex1 is the semi-infinite problem with
+		//solution source * erfc(d / (2 sqrt(D t))). The first image term of the series solution is how much
+		//the far end changes the concentration at the farthest distance that is looked at, by the final time.
+		double farthest = windowEnd > windowStart ? windowEnd : max_x - min_x;
+		double image = erfc((2 * (max_x - min_x) - farthest) / (2 * Math.sqrt(DIFFUSION * time)));
+		return image < ERFC_TOLERANCE;
+	}
+	
+	private String describeInputs(){
+		//Everything that changes the solution, including the solver's own numbers. timeToSteady isn't used to solve.
+		String inputs = "pdex1 version=" + SOLVER_VERSION + " method=" + method + " min_x=" + min_x + " max_x=" + max_x + " time=" + time +
+				" distSteps=" + distSteps + " timeSteps=" + timeSteps + " source=" + sourceConc + " sink=" + sinkConc +
+				" diffusion=" + DIFFUSION;
+		if (OCTAVE_SOLVER.equals(method)){
+			//the even grid doesn't depend on the window, but the answer depends on the pdepe that is used
+			return inputs + " solverPath=" + new File(solverPath).getAbsolutePath();
+		}
+		return inputs + " window=" + windowStart + "-" + windowEnd + " windowSteps=" + windowSteps +
+				" maxStepRatio=" + MAX_STEP_RATIO + " startupSteps=" + STARTUP_STEPS + " gridGrowth=" + GRID_GROWTH;
+	}
+	
+	private double[] makeGrid(){
+		//The simulation only looks between windowStart and windowEnd from the source, so the grid is
+		//windowSteps evenly spaced points there. Outside, the spacing grows until it is the spacing of
+		//distSteps points over the whole channel. The source is at max_x.
+		double coarse = (max_x - min_x) / (distSteps - 1.0);
+		double lo = max_x - windowEnd;
+		double hi = max_x - windowStart;
+		if (hi <= lo){
+			//No window - use the even grid
+			return makeEvenGrid();
+		}
+		double fine = (hi - lo) / (windowSteps - 1);
+		double[] below = gradedSpacing(lo - min_x, fine, coarse);
+		double[] above = gradedSpacing(max_x - hi, fine, coarse);
+		double[] x = new double[below.length + windowSteps + above.length];
+		int w = below.length;
+		x[w] = lo;
+		for (int k = 0; k < below.length; k++){
+			x[w - 1 - k] = x[w - k] - below[k];
+		}
+		x[0] = min_x;
+		for (int k = 1; k < windowSteps; k++){
+			x[w + k] = lo + (hi - lo) * k / (windowSteps - 1);
+		}
+		w += windowSteps - 1;
+		for (int k = 0; k < above.length; k++){
+			x[w + 1 + k] = x[w + k] + above[k];
+		}
+		x[x.length - 1] = max_x;
+		return x;
+	}
+	
+	private double[] makeEvenGrid(){
+		//distSteps evenly spaced points over the whole channel, as linspace(min_x, max_x, distSteps)
+		double coarse = (max_x - min_x) / (distSteps - 1.0);
+		double[] x = new double[distSteps];
+		for (int i = 0; i < distSteps; i++){
+			x[i] = min_x + i * coarse;
+		}
+		x[distSteps - 1] = max_x;
+		return x;
+	}
+	
+	private static double[] gradedSpacing(double length, double fine, double coarse){
+		//Spacings that grow by GRID_GROWTH from fine up to coarse, stretched to add up to length
+		if (length <= 0){
+			return new double[0];
+		}
+		double[] h = new double[16];
+		int n = 0;
+		double total = 0;
+		double step = fine;
+		while (total < length){
+			step = Math.min(step * GRID_GROWTH, coarse);
+			if (n == h.length){
+				h = Arrays.copyOf(h, n * 2);
+			}
+			h[n++] = step;
+			total += step;
+		}
+		if (n > 1 && total - length > h[n - 1] / 2){
+			//closer to fit with one less
+			total -= h[--n];
+		}
+		h = Arrays.copyOf(h, n);
+		for (int k = 0; k < n; k++){
+			h[k] *= length / total;
+		}
+		return h;
+	}
+	
+	private boolean writeTable(CMSolutionCache cache, String key){
+		//Writes the solution to a binary table, in the cache if there is one, and maps it
+		File f = null;
+		if (cache != null){
+			f = cache.store(key, solutionTimes, distances, solution);
+		}
+		try{
+			if (f == null || !f.isFile()){
+				f = new File(outputPath, tableFile);
+				CMConcentrationTable.write(f, solutionTimes, distances, solution);
+			}
+			table = CMConcentrationTable.map(f);
+		}
+		catch(IOException e){
+			System.err.println("Cannot write concentration table. Using the erfc solution. " + e.toString());
+			table = null;
+		}
+		solutionTimes = null;
+		solution = null;
+		return table != null;
+	}
+	
+	private void solvePDE(){
+		//Solves the pdex1 problem that the Octave template gives to pdepe:
+		//u_t = (D u_x)_x on the grid, u = 0 at min_x, u = sourceConc at max_x,
+		//u = 0 everywhere but max_x at time 0. Output times are linspace(0, time, timeSteps).
+		//Uses Crank-Nicolson in time with a tridiagonal solve, after a few backward Euler half steps.
+		//The step is set by the spacing of the even grid; the fine window is smooth by the time it matters.
+		long start = System.currentTimeMillis();
+		int n = grid.length;
+		double dx = (max_x - min_x) / (distSteps - 1.0);
+		double dtOut = (double)time / (timeSteps - 1);
+		int subSteps = (int)Math.max(1, Math.ceil(DIFFUSION * dtOut / (dx * dx) / MAX_STEP_RATIO));
+		double dt = dtOut / subSteps;
 		
+		//D*dt times the weights of u[j-1] and u[j+1] in the second derivative at each interior point
+		double[] left = new double[n];
+		double[] right = new double[n];
+		for (int j = 1; j < n - 1; j++){
+			double hl = grid[j] - grid[j - 1];
+			double hr = grid[j + 1] - grid[j];
+			left[j] = DIFFUSION * dt * 2 / (hl * (hl + hr));
+			right[j] = DIFFUSION * dt * 2 / (hr * (hl + hr));
+		}
+		
+		double[] u = new double[n];
+		double[] rhs = new double[n];
+		double[] scratch = new double[n];
+		u[n - 1] = sourceConc;
+		
+		solution = new double[timeSteps][];
+		solutionTimes = new long[timeSteps];
+		solution[0] = flipped(u);
+		solutionTimes[0] = 0;
+		int stepsTaken = 0;
+		for (int k = 1; k < timeSteps; k++){
+			for (int s = 0; s < subSteps; s++){
+				if (stepsTaken * 2 < STARTUP_STEPS){
+					//Two backward Euler half steps in place of each of the first Crank-Nicolson steps
+					thetaStep(u, rhs, scratch, left, right, 1.0, 0.5);
+					thetaStep(u, rhs, scratch, left, right, 1.0, 0.5);
+				}
+				else{
+					thetaStep(u, rhs, scratch, left, right, 0.5, 1.0);
+				}
+				stepsTaken++;
+			}
+			solution[k] = flipped(u);
+			solutionTimes[k] = (long)(dtOut * k * 1000); //solution times are in milliseconds
+		}
+		//distances from the source end of the channel
+		for (int i = 0; i < n; i++){
+			distances[i] = max_x - grid[n - 1 - i];
+		}
+		System.out.println("Solved concentration differential equations in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+	
+	private static void thetaStep(double[] u, double[] rhs, double[] scratch, double[] left, double[] right, double theta, double fraction){
+		//One step of (u' - u)/dt = D (theta L u' + (1-theta) L u) for the interior points, with dt a fraction of the full step
+		//The end points are fixed by the boundary conditions
+		int n = u.length;
+		double implicit = theta * fraction;
+		double explicit = (1 - theta) * fraction;
+		for (int j = 1; j < n - 1; j++){
+			rhs[j] = u[j] + explicit * (left[j] * u[j - 1] - (left[j] + right[j]) * u[j] + right[j] * u[j + 1]);
+		}
+		rhs[1] += implicit * left[1] * u[0];
+		rhs[n - 2] += implicit * right[n - 2] * u[n - 1];
+		//Thomas algorithm - scratch holds the modified upper diagonal
+		double diag = 1 + implicit * (left[1] + right[1]);
+		scratch[1] = -implicit * right[1] / diag;
+		rhs[1] = rhs[1] / diag;
+		for (int j = 2; j < n - 1; j++){
+			double m = 1 + implicit * (left[j] + right[j]) + implicit * left[j] * scratch[j - 1];
+			scratch[j] = -implicit * right[j] / m;
+			rhs[j] = (rhs[j] + implicit * left[j] * rhs[j - 1]) / m;
+		}
+		u[n - 2] = rhs[n - 2];
+		for (int j = n - 3; j >= 1; j--){
+			u[j] = rhs[j] - scratch[j] * u[j + 1];
+		}
+	}
+	
+	private static double[] flipped(double[] u){
+		//the solution is stored by distance from the source, which is at max_x
+		double[] f = new double[u.length];
+		for (int i = 0; i < u.length; i++){
+			f[i] = u[u.length - 1 - i];
+		}
+		return f;
+	}
+	
+	private boolean solveWithOctave(){
+		//Runs the pdepe template in Octave and reads its output into the solution
+		try {
+			writeTemplate();
+			System.out.println("Solving Differential Equations. Please wait.");
+			if (!CMOctaveWorker.getShared().solve(outputPath, solverPath, templateFile)){
+				System.err.println("Error solving concentration differential equations.");
+				return false;
+			}
+		}
+		catch(IOException e1) {
+			System.err.println("IOException: " + e1.toString());
+			System.err.println("Cannot use differential equations - using the erfc solution");
+			return false;
+		}
+		//read in the distances that were used in the equations
+		try{
+			File distFile = new File(outputPath, distanceFile);
+			FileInputStream fis = new FileInputStream(distFile);
+			InputStreamReader isr = new InputStreamReader(fis);
+			BufferedReader br = new BufferedReader(isr);
+			String line = br.readLine();
+			String[] values = line.split(",");
+			
+			for (int i = 1; i < grid.length; i++){
+				try{
+					distances[i] = Float.parseFloat(values[i]);
+					//System.out.println("distances " + i + ": " + distances[i]);
+				}
+				catch(NumberFormatException e){
+					System.err.println("Error reading distances!");
+					br.close();
+					return false;
+				}
+			}
+			br.close();
+			isr.close();
+			fis.close();
+		}
+		catch(FileNotFoundException e){
+			System.err.println("Cannot read distance file. Using the erfc solution");
+			return false;
+		}
+		catch(IOException a){
+			System.err.println("Cannot read distance file. Using the erfc solution");
+			return false;
+		}
+		//read in the ligand concentrations
+		try{
+			File concFile = new File(outputPath, concentrationFile);
+			BufferedReader concReader = new BufferedReader(new InputStreamReader(new FileInputStream(concFile)));
+			long[] times = new long[timeSteps];
+			double[][] rows = new double[timeSteps][];
+			int numRows = 0;
+			String line = concReader.readLine();
+			while (line != null){
+				String[] values = line.split(",");
+				if (numRows == times.length){
+					times = Arrays.copyOf(times, numRows * 2);
+					rows = Arrays.copyOf(rows, numRows * 2);
+				}
+				times[numRows] = (long)(Float.parseFloat(values[0]) * 1000); //function times are in milliseconds
+				rows[numRows] = new double[grid.length];
+				for (int i = 1; i <= grid.length; i++){
+					rows[numRows][i-1] = Double.parseDouble(values[i]);
+				}
+				numRows++;
+				line = concReader.readLine();
+			}
+			concReader.close();
+			solutionTimes = Arrays.copyOf(times, numRows);
+			solution = Arrays.copyOf(rows, numRows);
+		}
+		catch(FileNotFoundException e){
+			System.err.print("Cannot read concentration file. Using the erfc solution");
+			return false;
+		}
+		catch(NumberFormatException e){
+			System.err.println("Number Format Exception reading concentrations. Using the erfc solution");
+			return false;
+		}
+		catch(IOException e){
+			System.err.println("IOException reading concentrations. Using the erfc solution");
+			return false;
+		}
+		return solution.length > 0;
+	}
+	
+	private void writeTemplate() throws IOException{
 		File tempFile = new File(outputPath, templateFile + ".m");
 		File concFile = new File(outputPath, concentrationFile);
 		File distFile = new File(outputPath, distanceFile);
@@ -197,7 +504,7 @@ public class CMConcentrationSolver {
 		
 		tempOut.println("function [c,f,s] = pdex1pde(x,t,u,DuDx)");
 		tempOut.println("  c = 1;");
-		tempOut.println("  f =2.0e2*DuDx;");
+		tempOut.println("  f =" + DIFFUSION + "*DuDx;");
 		tempOut.println("  s = 0;");
 
 		tempOut.println("function u0 = pdex1ic(x)");
@@ -215,13 +522,35 @@ public class CMConcentrationSolver {
 	}
 	
 	public float getConcentration(float distFromSource, long experimentalTime){
+		if (!solved){
+			awaitSolution();
+		}
 		//experimental time is different from simulation time
 		//experimental time in milliseconds
 		//distance in micrometers
 		if (sourceConc == sinkConc){
 			return sourceConc;
 		}
-		if (!usePDE){ //The pde solver did not initialize correctly. Use a linear gradient
+		//Fill in the edge cases
+		if (distFromSource <= 0){
+			return sourceConc; //we are at the source 
+		}
+		if (distFromSource >= max_x){
+			return sinkConc; //we are at the sink
+		} 
+		if (experimentalTime == 0){
+			//By definition, at time = 0, it's the source conc at the xource and sink conc everywhere else
+			//distFromSource can't be <= 0 because that has already been taken care of
+			return sinkConc;
+		}
+		if (!usePDE && sourceConc > sinkConc){
+			//No table. The channel is long enough, or the pde solver did not initialize correctly
+			//Like the table, the concentrations don't change after the final time
+			double seconds = Math.min(experimentalTime, time * 1000) / 1000.0;
+			double reach = 2 * Math.sqrt(DIFFUSION * seconds);
+			return (float)(sourceConc * erfc(distFromSource / reach));
+		}
+		if (!usePDE){ //The gradient is reversed, so the pde was not solved. Use a linear gradient
 			float frontSpeed = (max_x) / (timeToSteady * 1000); //microns per millisecond
 			float frontPosition = frontSpeed * experimentalTime;
 			if (frontPosition > max_x){
@@ -235,45 +564,63 @@ public class CMConcentrationSolver {
 				return sinkConc + (slope * (frontPosition - distFromSource)); 
 			}
 		}
-		//Fill in the edge cases
-		if (distFromSource <= 0){
-			return sourceConc; //we are at the source 
+		
+		//If here, we need the data from the solution table
+		//Nothing is changed by reading it, so any time can be asked for from any thread
+		int nextRow = findTimeIndex(experimentalTime);
+		if (nextRow >= tableTimes.length){
+			//This is after the final time that we have data for and the concentrations don't change after this
+			nextRow = tableTimes.length - 1;
+			experimentalTime = tableTimes[nextRow];
 		}
-		if (distFromSource >= max_x){
-			return sinkConc; //we are at the sink
-		} 
-		if (experimentalTime == 0){
-			//By definition, at time = 0, it's the source conc at the xource and sink conc everywhere else
-			//distFromSource can't be <= 0 because that has already been taken care of
-			return sinkConc;
+		return interpolate(nextRow, getTimeFraction(nextRow, experimentalTime), distFromSource);
+	}
+	
+	public void getConcentrations(float[] dists, int count, long experimentalTime, float[] out, int outOffset){
+		if (!solved){
+			awaitSolution();
 		}
-		
-		//If here, we need the data from the solution files
-		//Is the most recent time at or before the experimental Time? We assume
-		//the experimental Time does not go backwards!
-		//TODO But COULD re-load and go back - think about it.
-		if (experimentalTime < lastTime){
-			System.err.println("Why has experimental time gone backwards? Major problem. Using linear gradient.");
-			usePDE = false;
-			return getConcentration(distFromSource, experimentalTime);
+		//Fills out[outOffset...] with the concentrations at the first count distances from source, all at one time
+		//experimental time in milliseconds, distances in micrometers
+		if (sourceConc == sinkConc || !usePDE || experimentalTime == 0){
+			for (int i = 0; i < count; i++){
+				out[outOffset + i] = getConcentration(dists[i], experimentalTime);
+			}
+			return;
 		}
-		while (experimentalTime > nextTime && !finalTimeReached){
-			readNextConcentration();
+		//The rows and how far between them we are only depend on the time, so find them once
+		int nextRow = findTimeIndex(experimentalTime);
+		if (nextRow >= tableTimes.length){
+			nextRow = tableTimes.length - 1;
+			experimentalTime = tableTimes[nextRow];
 		}
-		
-		if (finalTimeReached){
-			experimentalTime = nextTime; //This is the final time that we have data for and the concentrations don't change after this
+		double timePer = getTimeFraction(nextRow, experimentalTime);
+		for (int i = 0; i < count; i++){
+			float d = dists[i];
+			if (d <= 0){
+				out[outOffset + i] = sourceConc;
+			}
+			else if (d >= max_x){
+				out[outOffset + i] = sinkConc;
+			}
+			else{
+				out[outOffset + i] = interpolate(nextRow, timePer, d);
+			}
 		}
+	}
+	
+	private double getTimeFraction(int nextRow, long experimentalTime){
 		//How far between the times are we?
-		double timePer = (double)(experimentalTime - lastTime)/(nextTime - lastTime);
-		//System.out.println("timePer " + timePer);
-		float value = 0f;
+		long lastTime = tableTimes[nextRow - 1];
+		long nextTime = tableTimes[nextRow];
+		return (double)(experimentalTime - lastTime)/(nextTime - lastTime);
+	}
+	
+	private float interpolate(int nextRow, double timePer, float distFromSource){
+		//Concentration between the table rows nextRow-1 and nextRow, timePer of the way to nextRow
+		int previousRow = nextRow - 1;
 		//Now find where in the distances we are
-		int distIndex = 0;
-		while (distIndex < distSteps && distFromSource > distances[distIndex]){
-			//System.out.println("distIndex " + distIndex + " distances[index] " + distances[distIndex]);
-			distIndex++;
-		}
+		int distIndex = findDistanceIndex(distFromSource);
 		//System.out.println("distIndex " + distIndex);
 	
 		if (distIndex >= distSteps){
@@ -284,61 +631,52 @@ public class CMConcentrationSolver {
 			//get concentration at the source
 			return sourceConc;
 		}
-		//System.out.println("prevDist " + distances[distIndex-1] + " nextDist " + distances[distIndex]);
 		//Find the concentration at this point and this time
 		double distPer = (distFromSource - distances[distIndex-1])/(distances[distIndex] - distances[distIndex-1]);
-		//System.out.println("distPer " + distPer);
-		//System.out.println("nextConc[distIndex-1] " + nextConcentrations[distIndex-1]);
-		//System.out.println("nextConc[distIndex] " + nextConcentrations[distIndex]);
-		double nextDiff = nextConcentrations[distIndex] - nextConcentrations[distIndex-1];
-		//System.out.println("nextDiff " + nextDiff);
-		double prevDiff = previousConcentrations[distIndex] - previousConcentrations[distIndex-1];
-		//System.out.println("prevDiff " + prevDiff);
-		double nConc = nextConcentrations[distIndex-1] + (distPer * nextDiff);
-		//System.out.println("nConc " + nConc);
-		double pConc = previousConcentrations[distIndex-1] + (distPer * prevDiff);
-		//System.out.println("pConc " + pConc);
+		double nextLow = table.getConcentration(nextRow, distIndex-1);
+		double prevLow = table.getConcentration(previousRow, distIndex-1);
+		double nextDiff = table.getConcentration(nextRow, distIndex) - nextLow;
+		double prevDiff = table.getConcentration(previousRow, distIndex) - prevLow;
+		double nConc = nextLow + (distPer * nextDiff);
+		double pConc = prevLow + (distPer * prevDiff);
 		double concDiff = nConc - pConc;
-		//System.out.println("concDiff " + concDiff);
-		value = (float)(pConc + timePer * concDiff);
-		return value;
+		return (float)(pConc + timePer * concDiff);
 	}
 	
-	private void readNextConcentration(){
-		long newTime = 0;
-		double[] newConcentrations = new double[distSteps];
-		try{
-			String line = concReader.readLine();
-			if (line == null){
-				finalTimeReached = true;
-				return;
+	private int findTimeIndex(long experimentalTime){
+		//Returns the first row at or after this time, at least 1. Returns the number of rows if there is none
+		int low = 1, high = tableTimes.length;
+		while (low < high){
+			int middle = (low + high) >>> 1;
+			if (tableTimes[middle] < experimentalTime){
+				low = middle + 1;
 			}
-			String[] values = line.split(",");
-			//System.out.println("Length of values: " + values.length);
-			newTime = (long)(Float.parseFloat(values[0]) * 1000); //function times are in milliseconds
-			//System.out.println("New time: " + newTime);
-			for (int i = 1; i <= distSteps; i++){
-				newConcentrations[i-1] = Double.parseDouble(values[i]);
-				//System.out.print(newConcentrations[i-1] + " ");
+			else{
+				high = middle;
 			}
-			//System.out.println("");
-		}
-		catch(NumberFormatException e){
-			System.err.println("Number Format Exception reading concentrations. UGH! What to do?");
-			usePDE = false;
 		}
-		catch(IOException e){
-			System.err.println("IOException reading concentrations. UGH! What to do?");
-			usePDE = false;
+		return low;
+	}
+	
+	private int findDistanceIndex(float distFromSource){
+		//Returns the first distance at or beyond this one, or distSteps if there is none
+		int low = 0, high = distSteps;
+		while (low < high){
+			int middle = (low + high) >>> 1;
+			if (distances[middle] < distFromSource){
+				low = middle + 1;
+			}
+			else{
+				high = middle;
+			}
 		}
-		lastTime = nextTime;
-		nextTime = newTime;
-		previousConcentrations = nextConcentrations;
-		nextConcentrations = newConcentrations;
-		//System.out.println("last Time " + lastTime + "Next Time " + nextTime);
+		return low;
 	}
 	
 	public long timeToReach(float distanceFromSource, float threshold){
+		if (!solved){
+			awaitSolution();
+		}
 		//return time in milliseconds
 		if (sourceConc == sinkConc){
 			//If there is no gradient, all parts of the channel are the same
@@ -360,72 +698,99 @@ public class CMConcentrationSolver {
 			System.err.println("Outside of channel! Returning time to steady state.");
 			return timeToSteady * 1000;
 		}
+		if (!usePDE && sourceConc > sinkConc){
+			//Invert the erfc solution: erfc(d / (2 sqrt(D t))) = threshold / source
+			if (threshold <= 0){
+				return 0;
+			}
+			if (threshold >= sourceConc){
+				return time * 1000; //Only reached at the source
+			}
+			double z = inverseErfc(threshold / sourceConc);
+			double seconds = (distanceFromSource / (2 * z)) * (distanceFromSource / (2 * z)) / DIFFUSION;
+			return Math.min((long)(seconds * 1000), time * 1000); //as the table, never later than the final time
+		}
 		if (!usePDE){
 			//Using a linear gradient, find how long it takes for this distance to reach this threshold
 			double distToFront = (sourceConc * distanceFromSource) / (sourceConc - threshold);
 			float frontSpeed = (max_x) / (timeToSteady * 1000);
 			return (long)(distToFront/frontSpeed);
 		}
-		//Must use the concentration file to find out how long it takes for this threshold to be reached at this distance from source
+		//Use the solution to find out how long it takes for this threshold to be reached at this distance from source
 		//First find where the distance falls
-		int distIndex = 0;
-		while (distIndex < distSteps && distanceFromSource > distances[distIndex]){
-			//System.out.println("distIndex " + distIndex + " distances[index] " + distances[distIndex]);
-			distIndex++;
+		int distIndex = findDistanceIndex(distanceFromSource);
+		if (distIndex >= distSteps){
+			distIndex = distSteps - 1;
 		}
 		//System.out.println("distIndex " + distIndex);
-		//System.out.println("distances[distIndex] " + distances[distIndex] + " distances[distIndex+1 " + distances[distIndex+1]);
 		
-		try{
-			File concFile = new File(outputPath, concentrationFile);
-			FileInputStream fis = new FileInputStream(concFile);
-			InputStreamReader isr = new InputStreamReader(fis);
-			BufferedReader timeReader = new BufferedReader(isr);
-			
-			String line = timeReader.readLine();
-			float t1 = -1, t2 = -1;
-			float oldHigh = 0, oldLow = 0;
+		float[] arrivals = getArrivalTimes(threshold);
+		float t1 = arrivals[distIndex-1];
+		float t2 = arrivals[distIndex];
+		if (t1 < 0 || t2 < 0){
+			return tableTimes[tableTimes.length - 1]; //This is the maximum time possible.
+		}
+		long thresholdTime = (long)(t2 + ((t1-t2) * (distanceFromSource - distances[distIndex])/(distances[distIndex-1]-distances[distIndex])));
+		return thresholdTime;
+	}
+	
+	private float[] getArrivalTimes(float threshold){
+		//Returns the time (milliseconds) that each distance first goes over the threshold, or -1 if it never does
+		//Worked out once for each threshold, so later calls only look up the distance
+		Float key = Float.valueOf(threshold);
+		synchronized (arrivalTimes){
+			float[] arrivals = arrivalTimes.get(key);
+			if (arrivals != null){
+				return arrivals;
+			}
+		}
+		int numTimes = tableTimes.length;
+		float[] arrivals = new float[distSteps];
+		for (int i = 0; i < distSteps; i++){
+			arrivals[i] = -1;
+			float oldConc = 0;
 			long oldTime = 0;
-			String[] values = null;
-			while (line != null){
-				values = line.split(",");
-				float newHigh = Float.parseFloat(values[distIndex]);
-				float newLow = Float.parseFloat(values[distIndex+1]);
-				long newTime = (long)(Float.parseFloat(values[0]) *  1000);
-				//System.out.println("newHigh " + newHigh + " newLow " + newLow + " newTime " + newTime);
-				if (newHigh > threshold && t1 < 0){
-					//This is the first time that the concentration is over the threshold
-					t1 = oldTime + ((newTime-oldTime) * (threshold - oldHigh) / (newHigh - oldHigh));
-				}
-				if (newLow > threshold && t2 < 0){
+			for (int row = 0; row < numTimes; row++){
+				float newConc = (float)table.getConcentration(row, i);
+				long newTime = tableTimes[row];
+				if (newConc > threshold){
 					//This is the first time that the concentration is over the threshold
-					t2 = oldTime + ((newTime-oldTime) * (threshold - oldLow) / (newLow - oldLow));
-				}
-				//System.out.println("t1 " + t1 + " t2 " + t2);
-				if (t1 >= 0 && t2 >= 0){
+					arrivals[i] = oldTime + ((newTime-oldTime) * (threshold - oldConc) / (newConc - oldConc));
 					break;
 				}
-				oldHigh = newHigh;
-				oldLow = newLow;
+				oldConc = newConc;
 				oldTime = newTime;
-				line = timeReader.readLine();
-			}
-			if (line == null){
-				timeReader.close();
-				return oldTime; //This is the maximum time possible.
 			}
-			long thresholdTime = (long)(t2 + ((t1-t2) * (distanceFromSource - distances[distIndex])/(distances[distIndex-1]-distances[distIndex])));
-			timeReader.close();
-			return thresholdTime;
 		}
-		catch(NumberFormatException a){
-			System.err.println("Error in concentration file! " + a);
+		synchronized (arrivalTimes){
+			arrivalTimes.put(key, arrivals);
 		}
-		catch(IOException e){
-			System.err.print("Cannot read concentration file. Using Linear gradient" + e);
+		return arrivals;
+	}
+	
+	private static double erfc(double x){
+		//Complementary error function, fractional error under 1.2e-7 (Numerical Recipes erfcc)
+		double z = Math.abs(x);
+		double t = 1.0 / (1.0 + 0.5 * z);
+		double r = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418 +
+				t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587 +
+				t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? r : 2.0 - r;
+	}
+	
+	private static double inverseErfc(double q){
+		//The z > 0 with erfc(z) = q, for 0 < q < 1. erfc decreases, so bisect
+		double lo = 0, hi = 10;
+		for (int i = 0; i < 60; i++){
+			double mid = (lo + hi) / 2;
+			if (erfc(mid) > q){
+				lo = mid;
+			}
+			else{
+				hi = mid;
+			}
 		}
-		
-		return (timeToSteady*1000); //I guess this is as good a default as any!
+		return (lo + hi) / 2;
 	}
 	
 	public float getSourceConcentration(){
@@ -437,13 +802,6 @@ public class CMConcentrationSolver {
 	}
 	
 	public void destroy(){
-		try{
-			if (concReader != null){
-				concReader.close();
-			}
-		}
-		catch(IOException e){
-			System.err.println("Error closing concentration file. " + e.toString());
-		}
+		//The table is unmapped when it is garbage collected, so there is nothing to close
 	}
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMConcentrationTable.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author tagsit
+ * A solved concentration profile in a binary file that is memory mapped.
+ * The file holds a header, the distances from the source, the solution times and then
+ * the concentrations one time after another, so any time can be read directly by its index.
+ * Only absolute reads are used on the buffer, so a table can be read from several threads.
+ */
+public class CMConcentrationTable {
+	private static final int FORMAT_VERSION = 2;
+	private static final int HEADER_BYTES = 16; //version, number of times, number of distances, unused
+	
+	private MappedByteBuffer buffer;
+	private int numTimes, numDistances;
+	private int timesStart, valuesStart; //byte offsets into the buffer
+	
+	private CMConcentrationTable(MappedByteBuffer b, int nt, int nd){
+		buffer = b;
+		numTimes = nt;
+		numDistances = nd;
+		timesStart = HEADER_BYTES + numDistances * 8;
+		valuesStart = timesStart + numTimes * 8;
+	}
+	
+	public static void write(File f, long[] times, double[] distances, double[][] solution) throws IOException{
+		//times in milliseconds, solution[time index][distance index]
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try{
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(times.length);
+			out.writeInt(distances.length);
+			out.writeInt(0);
+			for (int i = 0; i < distances.length; i++){
+				out.writeDouble(distances[i]);
+			}
+			for (int k = 0; k < times.length; k++){
+				out.writeLong(times[k]);
+			}
+			for (int k = 0; k < times.length; k++){
+				for (int i = 0; i < distances.length; i++){
+					out.writeDouble(solution[k][i]);
+				}
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+	
+	public static CMConcentrationTable map(File f) throws IOException{
+		//Returns null if the file is not a table in this format
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_BYTES){
+				return null;
+			}
+			MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (b.getInt(0) != FORMAT_VERSION){
+				return null;
+			}
+			int nt = b.getInt(4);
+			int nd = b.getInt(8);
+			if (nt < 2 || nd < 2 || size != HEADER_BYTES + 8L * (nd + nt + (long)nt * nd)){
+				return null;
+			}
+			//The mapping stays valid after the file is closed
+			return new CMConcentrationTable(b, nt, nd);
+		}
+		finally{
+			raf.close();
+		}
+	}
+	
+	public int getNumTimes(){
+		return numTimes;
+	}
+	
+	public int getNumDistances(){
+		return numDistances;
+	}
+	
+	public double getDistance(int index){
+		return buffer.getDouble(HEADER_BYTES + index * 8);
+	}
+	
+	public long getTime(int timeIndex){
+		//milliseconds
+		return buffer.getLong(timesStart + timeIndex * 8);
+	}
+	
+	public double getConcentration(int timeIndex, int distIndex){
+		return buffer.getDouble(valuesStart + (timeIndex * numDistances + distIndex) * 8);
+	}
+}
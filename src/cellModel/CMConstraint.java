@@ -22,7 +22,8 @@ import com.bulletphysics.dynamics.constraintsolver.TypedConstraint;
  */
 public interface CMConstraint {
 	public void checkIn();
-	public void updateTime();
+	public long getBreakTime(); //simulation time in microseconds when the constraint breaks
+	public void expire();
 	public boolean isActive();
 	public boolean hasBeenActive();
 	public void destroy();
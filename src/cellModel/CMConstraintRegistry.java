@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMConstraintRegistry.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.bulletphysics.util.ObjectArrayList;
+
+/**
+ * @author tagsit
+ * Holds the constraints in the simulation, indexed by the collision that made them.
+ * A collision makes only a handful of constraints, so finding the constraints
+ * for a collision id no longer means scanning every constraint. The ids are kept as
+ * primitive longs, so looking one up for each contact doesn't box it.
+ * Each constraint knows when it will break, so active constraints wait in a queue
+ * ordered by break time and only the ones that break are touched each frame.
+ */
+public class CMConstraintRegistry {
+	private CollisionMap byCollision = new CollisionMap();
+	private PriorityQueue<CMConstraint> expiryQueue = new PriorityQueue<CMConstraint>(64, new BreakTimeComparator());
+	private ObjectArrayList<CMConstraint> created = new ObjectArrayList<CMConstraint>();
+	private ObjectArrayList<CMConstraint> unused = new ObjectArrayList<CMConstraint>();
+	private int numConstraints = 0;
+	
+	public void add(CMConstraint c){
+		index(c);
+		created.add(c);
+	}
+	
+	public void remove(CMConstraint c){
+		//Only needed for constraints removed before they break. Searching the queue is slow,
+		//but constraints that break are taken out by pollExpired instead
+		if (unindex(c)){
+			if (!created.remove(c)){
+				expiryQueue.remove(c);
+			}
+		}
+	}
+	
+	public ObjectArrayList<CMConstraint> scheduleCreated(){
+		//Constraints made since the last call that are active are queued to break.
+		//Returns the ones that never became active - they are no longer held here.
+		unused.clear();
+		int num = created.size();
+		for (int i = 0; i < num; i++){
+			CMConstraint c = created.getQuick(i);
+			if (c.isActive()){
+				expiryQueue.add(c);
+			}
+			else{
+				unindex(c);
+				unused.add(c);
+			}
+		}
+		created.clear();
+		return unused;
+	}
+	
+	public CMConstraint pollExpired(long time){
+		//Returns a constraint that breaks at or before this time (microseconds), or null.
+		//The constraint is no longer held here
+		CMConstraint c = expiryQueue.peek();
+		if (c == null || c.getBreakTime() > time){
+			return null;
+		}
+		expiryQueue.poll();
+		unindex(c);
+		return c;
+	}
+	
+	private void index(CMConstraint c){
+		long key = c.getCollId();
+		ObjectArrayList<CMConstraint> bucket = byCollision.get(key);
+		if (bucket == null){
+			bucket = new ObjectArrayList<CMConstraint>(4);
+			byCollision.put(key, bucket);
+		}
+		bucket.add(c);
+		numConstraints++;
+	}
+	
+	private boolean unindex(CMConstraint c){
+		long key = c.getCollId();
+		ObjectArrayList<CMConstraint> bucket = byCollision.get(key);
+		if (bucket == null || !bucket.remove(c)){
+			return false;
+		}
+		if (bucket.size() == 0){
+			byCollision.remove(key);
+		}
+		numConstraints--;
+		return true;
+	}
+	
+	public boolean exists(long collId){
+		return byCollision.get(collId) != null;
+	}
+	
+	public ObjectArrayList<CMConstraint> getByCollision(long collId){
+		//returns null if this collision has no constraints
+		return byCollision.get(collId);
+	}
+	
+	public CMConstraint get(long collId, int conId){
+		//Constraint ids are only unique within a protein, so return the first match
+		//as the list scan did
+		ObjectArrayList<CMConstraint> bucket = byCollision.get(collId);
+		if (bucket == null){
+			return null;
+		}
+		int num = bucket.size();
+		for (int i = 0; i < num; i++){
+			CMConstraint constraint = bucket.getQuick(i);
+			if (constraint.getConId() == conId){
+				return constraint;
+			}
+		}
+		return null;
+	}
+	
+	public int size(){
+		return numConstraints;
+	}
+	
+	static class CollisionMap {
+		//Open addressing map from collision id to its constraints. An empty slot has no bucket
+		//Linear probing, with entries shifted back on removal instead of leaving markers (see CollisionMapTest)
+		private long[] keys = new long[64];
+		private Object[] buckets = new Object[64];
+		private int size = 0;
+		
+		@SuppressWarnings("unchecked")
+		ObjectArrayList<CMConstraint> get(long key){
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (buckets[i] != null){
+				if (keys[i] == key){
+					return (ObjectArrayList<CMConstraint>)buckets[i];
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+		
+		void put(long key, ObjectArrayList<CMConstraint> bucket){
+			//Only called for keys that are not in the map
+			if ((size + 1) * 2 > keys.length){
+				grow();
+			}
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (buckets[i] != null){
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			buckets[i] = bucket;
+			size++;
+		}
+		
+		void remove(long key){
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (buckets[i] != null && keys[i] != key){
+				i = (i + 1) & mask;
+			}
+			if (buckets[i] == null){
+				return;
+			}
+			buckets[i] = null;
+			size--;
+			//Move later entries of the run back so every key can still be found from its slot
+			int j = (i + 1) & mask;
+			while (buckets[j] != null){
+				int home = slot(keys[j], mask);
+				//The entry at j can fill the gap at i unless its home is cyclically in (i, j]
+				if (((j - home) & mask) >= ((j - i) & mask)){
+					keys[i] = keys[j];
+					buckets[i] = buckets[j];
+					buckets[j] = null;
+					i = j;
+				}
+				j = (j + 1) & mask;
+			}
+		}
+		
+		int size(){
+			return size;
+		}
+		
+		int capacity(){
+			return keys.length;
+		}
+		
+		private void grow(){
+			long[] oldKeys = keys;
+			Object[] oldBuckets = buckets;
+			keys = new long[oldKeys.length * 2];
+			buckets = new Object[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int k = 0; k < oldKeys.length; k++){
+				if (oldBuckets[k] != null){
+					int i = slot(oldKeys[k], mask);
+					while (buckets[i] != null){
+						i = (i + 1) & mask;
+					}
+					keys[i] = oldKeys[k];
+					buckets[i] = oldBuckets[k];
+				}
+			}
+		}
+		
+		static int slot(long key, int mask){
+			//Ids are handed out in order, so mix the bits before taking the slot
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int)(h ^ (h >>> 32)) & mask;
+		}
+	}
+	
+	private static class BreakTimeComparator implements Comparator<CMConstraint> {
+		public int compare(CMConstraint a, CMConstraint b){
+			//Ties are broken by ids so constraints break in the same order on every run
+			if (a.getBreakTime() != b.getBreakTime()){
+				return a.getBreakTime() < b.getBreakTime() ? -1 : 1;
+			}
+			if (a.getCollId() != b.getCollId()){
+				return a.getCollId() < b.getCollId() ? -1 : 1;
+			}
+			return a.getConId() - b.getConId();
+		}
+	}
+}
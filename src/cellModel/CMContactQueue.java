@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMContactQueue.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+import com.bulletphysics.ContactAddedCallback;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.narrowphase.ManifoldPoint;
+import com.bulletphysics.util.ObjectArrayList;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * @author tagsit
+ * Bullet calls this while it steps the world, each time it finds a contact on a body
+ * with the CUSTOM_MATERIAL_CALLBACK flag. Contacts that are close enough to matter to the
+ * biology are given their id and copied into a queue, and the queue is handed to the objects
+ * once the step is over. Nothing else has to look through the manifolds.
+ */
+public class CMContactQueue extends ContactAddedCallback {
+	private CMContactRegistry contacts;
+	private float maxDistance = .05f; //to account for length of laminin and integrin
+	private boolean findSegments = false; //cells collide as spheres, so the segment comes from the contact point
+	private ObjectArrayList<ContactEvent> events = new ObjectArrayList<ContactEvent>();
+	private ObjectArrayList<ContactEvent> pool = new ObjectArrayList<ContactEvent>(); //events to reuse
+	
+	public CMContactQueue(CMContactRegistry contacts){
+		this.contacts = contacts;
+	}
+	
+	public void setFindSegments(boolean find){
+		findSegments = find;
+	}
+	
+	public boolean contactAdded(ManifoldPoint pt, CollisionObject colObj0, int partId0, int index0, CollisionObject colObj1, int partId1, int index1){
+		//pt is the point kept in the manifold, and colObj0 is the manifold's first body
+		if (pt.getDistance() >= maxDistance){
+			return false;
+		}
+		CMRigidBody objA = (CMRigidBody)colObj0;
+		CMRigidBody objB = (CMRigidBody)colObj1;
+		if (findSegments){
+			//Only the mesh algorithm says which triangle touched. Every other contact keeps index 0,
+			//so a sphere's segment is found from the contact point and the other side gets -1
+			pt.index0 = getSegment(objA, pt.localPointA);
+			pt.index1 = getSegment(objB, pt.localPointB);
+		}
+		//The id is found now, while Bullet still holds the point, so the contact keeps it from frame to frame
+		long collisionID = contacts.getCollisionId(objA, objB, pt);
+		
+		ContactEvent event;
+		if (pool.size() > 0){
+			event = pool.remove(pool.size() - 1);
+		}
+		else{
+			event = new ContactEvent();
+		}
+		event.objA = objA;
+		event.objB = objB;
+		event.collisionID = collisionID;
+		event.point.set(pt); //Bullet may change or reuse its point before the queue is handed out
+		events.add(event);
+		return false; //the contact was not changed
+	}
+	
+	public void dispatch(){
+		//Tell both objects of each queued contact, then keep the events for reuse
+		int numEvents = events.size();
+		for (int i = 0; i < numEvents; i++){
+			ContactEvent event = events.getQuick(i);
+			event.objA.getParent().collided(event.objB.getParent(), event.point, event.collisionID);
+			event.objB.getParent().collided(event.objA.getParent(), event.point, event.collisionID);
+			event.objA = null;
+			event.objB = null;
+			event.point.userPersistentData = null;
+			pool.add(event);
+		}
+		events.clear();
+	}
+	
+	private static int getSegment(CMRigidBody body, Vector3f localPoint){
+		//The membrane segment at a point in the body's frame, or -1 if the body isn't a segmented cell
+		if (body.getParent() instanceof CMSegmentedCell){
+			return ((CMSegmentedCell)body.getParent()).getSegment(localPoint);
+		}
+		return -1;
+	}
+	
+	public int size(){
+		return events.size();
+	}
+	
+	private static class ContactEvent {
+		private CMRigidBody objA, objB;
+		private long collisionID;
+		private ManifoldPoint point = new ManifoldPoint();
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMContactRegistry.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.bulletphysics.collision.narrowphase.ManifoldPoint;
+
+/**
+ * @author tagsit
+ * Gives contacts an id that lasts from frame to frame.
+ * A contact is a pair of bodies touching at a pair of triangles (an index of -1 when the
+ * body is not a mesh). The contacts are kept in a map, so a new point that Bullet makes for the
+ * same contact finds the same id. The point's own user data belongs to the constraint solver.
+ * Constraints are made and checked in under the id, so a contact that lasts many frames
+ * only makes its constraints once.
+ */
+public class CMContactRegistry {
+	private HashMap<Contact, Contact> contacts = new HashMap<Contact, Contact>();
+	private Contact probe = new Contact(); //reused for map lookups
+	private CMConstraintRegistry constraints;
+	private long nextId = 0L;
+	private long frame = 0L;
+	private int keepFrames = 60; //frames a contact is remembered after it was last seen
+	
+	public CMContactRegistry(CMConstraintRegistry constraints){
+		this.constraints = constraints;
+	}
+	
+	public long getCollisionId(CMRigidBody body0, CMRigidBody body1, ManifoldPoint pt){
+		probe.set(body0, pt.index0, body1, pt.index1);
+		Contact contact = contacts.get(probe);
+		if (contact == null){
+			contact = new Contact();
+			contact.set(body0, pt.index0, body1, pt.index1);
+			contact.id = nextId;
+			nextId++;
+			if (nextId >= Long.MAX_VALUE){
+				nextId = 0L;
+			}
+			contacts.put(contact, contact);
+		}
+		contact.lastSeen = frame;
+		return contact.id;
+	}
+	
+	public void endFrame(){
+		//Forget contacts that have not been seen for a while and no longer hold any constraints
+		frame++;
+		if (frame % keepFrames != 0){
+			return;
+		}
+		Iterator<Contact> it = contacts.keySet().iterator();
+		while (it.hasNext()){
+			Contact contact = it.next();
+			if (frame - contact.lastSeen > keepFrames && !constraints.exists(contact.id)){
+				it.remove();
+			}
+		}
+	}
+	
+	public int size(){
+		return contacts.size();
+	}
+	
+	private static class Contact {
+		private CMRigidBody bodyA, bodyB;
+		private int indexA, indexB;
+		private long id;
+		private long lastSeen;
+		
+		private void set(CMRigidBody b0, int i0, CMRigidBody b1, int i1){
+			bodyA = b0;
+			indexA = i0;
+			bodyB = b1;
+			indexB = i1;
+		}
+		
+		private boolean matches(CMRigidBody b0, int i0, CMRigidBody b1, int i1){
+			//Bullet does not promise the same body order every time a pair touches
+			if (bodyA == b0 && bodyB == b1){
+				return indexA == i0 && indexB == i1;
+			}
+			if (bodyA == b1 && bodyB == b0){
+				return indexA == i1 && indexB == i0;
+			}
+			return false;
+		}
+		
+		public boolean equals(Object o){
+			if (!(o instanceof Contact)){
+				return false;
+			}
+			Contact other = (Contact)o;
+			return matches(other.bodyA, other.indexA, other.bodyB, other.indexB);
+		}
+		
+		public int hashCode(){
+			//the same whichever body is first
+			int a = System.identityHashCode(bodyA) * 31 + indexA;
+			int b = System.identityHashCode(bodyB) * 31 + indexB;
+			return a ^ b;
+		}
+	}
+}
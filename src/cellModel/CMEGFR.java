@@ -59,6 +59,19 @@ public class CMEGFR extends CMMembraneProtein{
 		return (newBound);
 	}
 	
+	@Override
+	protected void updateReceptors(float[] ligand, float[] free, float[] bound, float[] exo, int start, int end, float deltaTime){
+		//Same forward Euler steps as updateFreeReceptors and updateBoundReceptors, for a span of segments
+		for (int i = start; i < end; i++){
+			float L = ligand[i];
+			float R = free[i];
+			float C = bound[i];
+			float newFree = R + deltaTime * (-k_on * R * L + k_off * C - k_t * R + exo[i]);
+			free[i] = newFree;
+			bound[i] = C + deltaTime * (k_on * newFree * L - k_off * C - k_e * C);
+		}
+	}
+	
 	@Override
 	public boolean bindsToLaminin(){
 		return false;
@@ -70,7 +83,7 @@ public class CMEGFR extends CMMembraneProtein{
 	}
 	
 	@Override
-	public int bindReceptors(int numLigands, int numFreeReceptors){
+	public int bindReceptors(int numLigands, int numFreeReceptors, CMRandom random){
 		return (int)(Math.round((Math.max(numLigands, numFreeReceptors) * k_on)));
 	}
 	
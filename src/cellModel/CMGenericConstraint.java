@@ -29,6 +29,7 @@ public class CMGenericConstraint implements CMConstraint{ // implements CMBioObj
 	private boolean neverActive = true;
 	private int checked; //checks in number of constraints (can keep track of number for destroy method)
 	private long initialTime; //need to find a way to subtract Date values
+	private long breakTime; //microseconds
 	private long lifeSpan = 60 * 20 * 1000 * 1000; // longest lifespan in microseconds (10 minutes)
 	private float a = 3f/(lifeSpan * lifeSpan);
 	private long collisionId;
@@ -38,15 +39,18 @@ public class CMGenericConstraint implements CMConstraint{ // implements CMBioObj
 	CMSegmentedCell cell = null;
 	CMSimulation sim;
 	Generic6DofConstraint constraint;
+	private CMRandom random;
 	
 	public CMGenericConstraint(CMSimulation s, CMRigidBody rbA, CMRigidBody rbB, Transform localA, Transform localB, boolean useLinearReferenceFrameA, long collId, int conId, int seg, int pro){
 		constraint= new Generic6DofConstraint(rbA, rbB, localA, localB, true);
 		sim = s;
+		random = sim.getRandomStream(CMRandom.CONSTRAINT);
 		isActive = false;
 		checked = 0;
 		collisionId = collId;
 		constraintId = conId; 
 		initialTime = sim.getCurrentTimeMicroseconds();
+		breakTime = sampleBreakTime();
 		sim.addConstraint(this);
 		segment = seg;
 		proteinId = pro;
@@ -68,22 +72,52 @@ public class CMGenericConstraint implements CMConstraint{ // implements CMBioObj
 		
 	}
 	
-	//updating time to see if constraint continues or is broken in next time step
-	public void updateTime(){
-		long age = sim.getCurrentTimeMicroseconds() - initialTime;
-		long time = sim.getCurrentTimeMicroseconds();
-		float deg = getDegraded(time);
-		float fa = getFocalAdhesionDevelopment(time);
-		float force = getForceFactor(time);
-		
-		float prob = deg * fa * force;
-		
-		if (sim.nextRandomF() < prob){
-			isActive = false;
+	//Finding the time the constraint breaks when it is made
+	//Each frame, the constraint used to break with probability
+	//getDegraded(t) * getFocalAdhesionDevelopment(t) * getForceFactor(t) at simulation time t.
+	//Taken as a hazard rate of that probability per frame step, with x = t/lifeSpan the hazard
+	//is .5 * force * x * (3x^2 - 3x + 1) per frame step, and the total hazard since the constraint
+	//was made is .5 * force * lifeSpan/frameStep * (F(x) - F(x0)) with F(x) = .75x^4 - x^3 + .5x^2.
+	//So the break time is found by drawing that total from an exponential distribution.
+	private long sampleBreakTime(){
+		float force = getForceFactor(initialTime);
+		if (force <= 0){
+			return Long.MAX_VALUE;
 		}
+		double frameStep = sim.getFrameStepMicroseconds();
+		double survived = -Math.log(1.0 - random.nextDouble());
+		double x0 = (double)initialTime / lifeSpan;
+		double target = hazardIntegral(x0) + survived * frameStep / (.5 * force * lifeSpan);
 		
-		//System.out.println("Constraint CollId: " + collisionID + " age: " + age + " deg: " + deg + " fa: " + fa);
-		//System.out.println("     prob " + prob + " alive: " + isActive);
+		//hazardIntegral increases with x, so bracket the answer and bisect
+		double low = x0;
+		double high = Math.max(x0, 1.0);
+		while (hazardIntegral(high) < target){
+			high *= 2;
+		}
+		for (int i = 0; i < 60; i++){
+			double middle = (low + high)/2;
+			if (hazardIntegral(middle) < target){
+				low = middle;
+			}
+			else{
+				high = middle;
+			}
+		}
+		return (long)Math.ceil(high * lifeSpan);
+	}
+	
+	private static double hazardIntegral(double x){
+		double x2 = x * x;
+		return .75 * x2 * x2 - x2 * x + .5 * x2;
+	}
+	
+	public long getBreakTime(){
+		return breakTime;
+	}
+	
+	public void expire(){
+		isActive = false;
 	}
 	
 	public float getDegraded(long age){
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMHeadless.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+/**
+ * @author tagsit
+ * Runs a CMSimulation without a display. This is the counterpart of CMLWJGL
+ * for batch runs: the simulation advances on its fixed time step as fast
+ * as the machine allows, so no window or OpenGL context is needed.
+ */
+public class CMHeadless {
+	
+	public static void run(CMSimulation sim){
+		long wallStart = System.currentTimeMillis();
+		
+		while (!sim.readyToQuit()){
+			sim.advanceSimulation();
+		}
+		
+		long wallTime = System.currentTimeMillis() - wallStart;
+		sim.writeToLog("Headless run finished. Wall clock time (ms): " + wallTime);
+		sim.wrapUp();
+		sim.destroy();
+	}
+}
@@ -76,6 +76,15 @@ public class CMIntegrin extends CMMembraneProtein {
 		return (currentBound);
 	}
 	
+	@Override
+	protected void updateReceptors(float[] ligand, float[] free, float[] bound, float[] exo, int start, int end, float deltaTime){
+		//Bound integrins only change when constraints are made or broken
+		for (int i = start; i < end; i++){
+			float R = free[i];
+			free[i] = R + deltaTime * (-k_t * R + exo[i]);
+		}
+	}
+	
 	@Override
 	public float getInitialProteins(float portion){
 		return (R_t * portion);
@@ -87,11 +96,12 @@ public class CMIntegrin extends CMMembraneProtein {
 	}
 	
 	@Override
-	public int bindReceptors(int numLigands, int numFreeReceptors){
+	public int bindReceptors(int numLigands, int numFreeReceptors, CMRandom random){
+		//random is the stream of the cell that is binding
 		//float deltaTime = sim.getDeltaTimeMilliseconds() / 1000f / 60f;
 		//return (int)(Math.round(numLigands * numFreeReceptors * k_on * deltaTime));
 		int possibleBonds = Math.min(numLigands, numFreeReceptors);
-		int bonds = (int)(sim.nextRandomF() * k_on * possibleBonds);
+		int bonds = (int)(random.nextFloat() * k_on * possibleBonds);
 		return bonds;
 	}
 	
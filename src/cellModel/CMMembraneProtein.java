@@ -80,11 +80,23 @@ public class CMMembraneProtein {
 		return 0;
 	}
 	
+	protected void updateReceptors(float[] ligand, float[] free, float[] bound, float[] exo, int start, int end, float deltaTime){
+		//Updates the receptors on segments start (inclusive) to end (exclusive) of the membrane store arrays
+		//The bound receptors are updated with the new number of free receptors
+		//Subclasses should override this with the rate equations written out so the loop stays simple
+		float freeEndo = getUnboundEndocytosisRate();
+		float boundEndo = getBoundEndocytosisRate();
+		for (int i = start; i < end; i++){
+			free[i] = updateFreeReceptors(ligand[i], bound[i], free[i], freeEndo, exo[i], deltaTime);
+			bound[i] = updateBoundReceptors(ligand[i], bound[i], free[i], boundEndo, deltaTime);
+		}
+	}
+	
 	public boolean bindsToLaminin(){
 		return false;
 	}
 	
-	public int bindReceptors(int numLigands, int numFreeReceptors){
+	public int bindReceptors(int numLigands, int numFreeReceptors, CMRandom random){
 		return 0;
 	}
 	
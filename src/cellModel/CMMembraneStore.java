@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMMembraneStore.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+/**
+ * @author tagsit
+ * Holds the membrane protein amounts for every segmented cell in the simulation.
+ * Each protein has one flat array of free, bound and exocytosis values for all membrane segments,
+ * and each cell owns a block of numSegments entries starting at the offset it was given.
+ * The arrays grow as cells are added, so cells should ask for them again rather than keep them.
+ * Blocks for cells that are removed are not reused.
+ */
+public class CMMembraneStore {
+	private int numProteins;
+	private float[][] free;
+	private float[][] bound;
+	private float[][] exocytosis; //exocytosis rate of each segment (depends on the segment's area)
+	private float[] ligand; //ligand concentration at each segment
+	private int used = 0;
+	private int capacity = 0;
+	
+	public CMMembraneStore(int numProteins){
+		this.numProteins = numProteins;
+		free = new float[numProteins][];
+		bound = new float[numProteins][];
+		exocytosis = new float[numProteins][];
+		resize(1024);
+	}
+	
+	public synchronized int allocate(int numSegments){
+		//Returns the offset of a new block of numSegments entries
+		if (used + numSegments > capacity){
+			resize(Math.max(capacity * 2, used + numSegments));
+		}
+		int offset = used;
+		used += numSegments;
+		return offset;
+	}
+	
+	private void resize(int newCapacity){
+		for (int i = 0; i < numProteins; i++){
+			free[i] = grow(free[i], newCapacity);
+			bound[i] = grow(bound[i], newCapacity);
+			exocytosis[i] = grow(exocytosis[i], newCapacity);
+		}
+		ligand = grow(ligand, newCapacity);
+		capacity = newCapacity;
+	}
+	
+	private float[] grow(float[] old, int newCapacity){
+		float[] arr = new float[newCapacity];
+		if (old != null){
+			System.arraycopy(old, 0, arr, 0, used);
+		}
+		return arr;
+	}
+	
+	public int getNumProteins(){
+		return numProteins;
+	}
+	
+	public float[] getFree(int protein){
+		return free[protein];
+	}
+	
+	public float[] getBound(int protein){
+		return bound[protein];
+	}
+	
+	public float[] getExocytosis(int protein){
+		return exocytosis[protein];
+	}
+	
+	public float[] getLigand(){
+		return ligand;
+	}
+	
+	public int size(){
+		return used;
+	}
+}
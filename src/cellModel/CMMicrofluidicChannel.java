@@ -41,7 +41,15 @@ public class CMMicrofluidicChannel {
 	private int measureSegments = 5;
 	private CMSimulation sim;
 	private CMConcentrationSolver solver;
-	private long timeToReach = 0;
+	private long timeToReach = -1; //-1 until first asked for, so setup doesn't wait for the solver
+	//Concentrations across the channel at one time, sampled on an even grid so lookups are direct
+	private int snapshotPoints = 513;
+	private float[] snapshot = new float[snapshotPoints];
+	private float snapshotStep;
+	private long snapshotTime = -1; //milliseconds. -1 until the first snapshot
+	private float[] snapshotDists = new float[snapshotPoints]; //distance from source of each snapshot point
+	private float[] measureDists = new float[measureSegments];
+	private float[] measureConcs = new float[measureSegments];
 	
 	
 	public CMMicrofluidicChannel(CMSimulation s, float cw, float d, CMConcentrationSolver sol){
@@ -58,7 +66,10 @@ public class CMMicrofluidicChannel {
 		if (distFromSource + channelWidth > totalLength){
 			distFromSource = totalLength - channelWidth;
 		}
-		timeToReach = sol.timeToReach(distFromSource, .01f);
+		snapshotStep = channelWidth / (snapshotPoints - 1);
+		for (int i = 0; i < snapshotPoints; i++){
+			snapshotDists[i] = distFromSource + i * snapshotStep;
+		}
 	}
 	
 	public void makeChannel(CMSimulation sim){
@@ -118,11 +129,57 @@ public class CMMicrofluidicChannel {
 	
 	public float getConcentration(float distFromMin, long time){
 		//time is in milliseconds - NOT microseconds!
+		if (time == snapshotTime && distFromMin >= 0 && distFromMin <= channelWidth){
+			return getSnapshotConcentration(distFromMin);
+		}
 		float dist = distFromSource + distFromMin;
 		long experimentalTime = time + timeToReach;
 		return solver.getConcentration(dist, time);
 	}
 	
+	public void getConcentrations(float[] distFromMin, int count, long time, float[] out, int outOffset){
+		//Fills out[outOffset...] with the concentrations at the first count distances from the channel minimum
+		//time is in milliseconds
+		if (time == snapshotTime){
+			for (int i = 0; i < count; i++){
+				float d = distFromMin[i];
+				if (d >= 0 && d <= channelWidth){
+					out[outOffset + i] = getSnapshotConcentration(d);
+				}
+				else{
+					out[outOffset + i] = solver.getConcentration(distFromSource + d, time);
+				}
+			}
+			return;
+		}
+		float[] dists = new float[count];
+		for (int i = 0; i < count; i++){
+			dists[i] = distFromSource + distFromMin[i];
+		}
+		solver.getConcentrations(dists, count, time, out, outOffset);
+	}
+	
+	private float getSnapshotConcentration(float distFromMin){
+		//Interpolate in the snapshot for this time
+		float pos = distFromMin / snapshotStep;
+		int index = (int)pos;
+		if (index >= snapshotPoints - 1){
+			return snapshot[snapshotPoints - 1];
+		}
+		float fraction = pos - index;
+		return snapshot[index] + fraction * (snapshot[index + 1] - snapshot[index]);
+	}
+	
+	public void updateSnapshot(long time){
+		//time is in milliseconds. Call once a frame, before concentrations are read from several threads
+		if (time == snapshotTime){
+			return;
+		}
+		snapshotTime = -1;
+		solver.getConcentrations(snapshotDists, snapshotPoints, time, snapshot, 0);
+		snapshotTime = time;
+	}
+	
 	
 	
 	public Vector3f getMinChannelVector(){
@@ -140,6 +197,9 @@ public class CMMicrofluidicChannel {
 	}
 	
 	public long getTimeToReach(){
+		if (timeToReach < 0){
+			timeToReach = solver.timeToReach(distFromSource, .01f);
+		}
 		return timeToReach;
 	}
 	
@@ -148,12 +208,18 @@ public class CMMicrofluidicChannel {
 		String out = "";
 		float distanceBetweenMeasures = channelWidth / (measureSegments-1);
 		
+		if (!title){
+			for (int i = 0; i < measureSegments; i++){
+				measureDists[i] = i * distanceBetweenMeasures;
+			}
+			getConcentrations(measureDists, measureSegments, time, measureConcs, 0);
+		}
 		for (int i = 0; i < measureSegments; i++){
 			if (title){
 				out+= ((distFromSource + (i * distanceBetweenMeasures))/1000) + " mm\t";
 			}
 			else{
-				out += getConcentration(i * distanceBetweenMeasures, time) + "\t";
+				out += measureConcs[i] + "\t";
 			}
 		}
 	
@@ -172,18 +238,21 @@ public class CMMicrofluidicChannel {
 	}
 	
 	public float getDistanceFromMinimum(float x_value){
-		return (x_value - getMinChannelVector().x);
+		return (x_value - (float)(-channelWidth/2.0));
 	}
 	
 	private class ConcentrationOverlay extends CMWall{
 		private float[] glMat = new float[16];
 		CMMicrofluidicChannel channel;
 		int drawnSegments;
+		float[] drawnDists, drawnConcs;
 		
 		public ConcentrationOverlay(CMMicrofluidicChannel mc){
 			super(mc.sim, mc.channelWidth, mc.channelHeight, 1f, new Vector3f(0f, 0f, (float)((mc.channelDepth+mc.wallThick+4)/2.0)));
 			body.setCollisionFlags(body.getCollisionFlags()|CollisionFlags.NO_CONTACT_RESPONSE);
 			drawnSegments = 100;
+			drawnDists = new float[drawnSegments];
+			drawnConcs = new float[drawnSegments];
 			channel = mc;
 			this.setColor(.9f, .9f, .2f, .2f);
 		}
@@ -191,6 +260,11 @@ public class CMMicrofluidicChannel {
 		public void collided(CMBioObj c, ManifoldPoint pt, boolean isObjA, long collId){
 		}
 		
+		public short getCollisionMask(){
+			//Only drawn, so it is never paired with anything
+			return 0;
+		}
+		
 		public boolean specialRender(IGL gl, Transform t){
 			//This just draws an representation of the concentration gradient behind the channel
 			float right = -channel.channelWidth/2;
@@ -209,11 +283,15 @@ public class CMMicrofluidicChannel {
 			gl.glMultMatrix(glMat);
 			GL11.glColor3f(channel.baseConcColor[0], channel.baseConcColor[1], channel.baseConcColor[2]);
 			GL11.glNormal3f( 0f, 0f, -1f); 
+			for (int i = 0; i < drawnSegments; i++){
+				drawnDists[i] = i * blockWidth;
+			}
+			channel.getConcentrations(drawnDists, drawnSegments, ti, drawnConcs, 0);
 			GL11.glBegin(GL_QUADS);
 			for (int i = 0; i < drawnSegments; i++){
 				float ri = i * blockWidth;
 				float le = ri + blockWidth; 
-				float con = channel.getConcentration(ri, ti);
+				float con = drawnConcs[i];
 				float mi = con/(channel.sourceConcentration - channel.sinkConcentration) * channel.channelHeight + bottom;
 				//System.out.println(i + "ri: " + ri + " le: " + le + " con: " + con + " mi: " + mi);
 				GL11.glVertex3f(le+right,mi,z);
@@ -130,6 +130,10 @@ public class CMMolecule implements CMBioObj{
 		//System.out.println(this.id + "-Velocity Changes:" + magnitude + " Direction:" + x_mag + "," + y_mag + ", " + z_mag );
 	}
 	
+	public void updateInternalState(){
+		//Molecules have no internal state
+	}
+	
 	public Vector3f getColor3Vector(){
 		return new Vector3f(molColor[0], molColor[1], molColor[2]);
 	}
@@ -189,6 +193,14 @@ public class CMMolecule implements CMBioObj{
 		return toRemove;
 	}
 	
+	public short getCollisionGroup(){
+		return MOLECULE_GROUP;
+	}
+	
+	public short getCollisionMask(){
+		return ALL_GROUPS;
+	}
+	
 	public boolean isBound(){
 		return bound;
 	}
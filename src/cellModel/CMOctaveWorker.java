@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMOctaveWorker.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *
+ */
+package cellModel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * @author tagsit
+ * One Octave process that stays running and solves the pdepe templates for every simulation.
+ * Commands are written to its standard input. After each one it prints a line saying
+ * whether the template ran, so only the first solve waits for Octave to start.
+ */
+public class CMOctaveWorker {
+	private static final String OK = "CM-OCTAVE-OK", FAILED = "CM-OCTAVE-FAILED", DONE = "CM-OCTAVE-DONE";
+	private static CMOctaveWorker shared = null;
+
+	private Process octave;
+	private PrintStream commands;
+	private BufferedReader output; //Octave's standard output and error
+
+	private CMOctaveWorker() throws IOException{
+		ProcessBuilder pb = new ProcessBuilder("octave", "--quiet", "--no-history", "--no-line-editing", "--no-window-system");
+		pb.redirectErrorStream(true);
+		octave = pb.start();
+		commands = new PrintStream(octave.getOutputStream(), true);
+		output = new BufferedReader(new InputStreamReader(octave.getInputStream()));
+	}
+
+	public static synchronized CMOctaveWorker getShared() throws IOException{
+		if (shared == null){
+			System.out.println("Starting Octave. Please wait.");
+			shared = new CMOctaveWorker();
+		}
+		return shared;
+	}
+
+	public static synchronized void closeShared(){
+		if (shared != null){
+			shared.close();
+			shared = null;
+		}
+	}
+
+	public synchronized boolean solve(String outputPath, String solverPath, String template) throws IOException{
+		//Runs the function template, which is in outputPath and uses the solver in solverPath
+		//Returns whether it finished without an error
+		String out = quote(outputPath);
+		commands.println("addpath(" + out + "); addpath(" + quote(solverPath) + ");");
+		commands.println("try, " + template + "; disp('" + OK + "'); catch err, disp(err.message); disp('" + FAILED + "'); end");
+		//Forget this template so the next one with the same name is read from its own directory
+		commands.println("rmpath(" + out + "); clear " + template + "; disp('" + DONE + "'); fflush(stdout);");
+		if (commands.checkError()){
+			closeShared();
+			throw new IOException("Octave is not running");
+		}
+		boolean ok = false;
+		String line = output.readLine();
+		while (line != null && !line.equals(DONE)){
+			if (line.equals(OK)){
+				ok = true;
+			}
+			else if (!line.equals(FAILED)){
+				System.out.println(line);
+			}
+			line = output.readLine();
+		}
+		if (line == null){
+			//Octave quit. Start a new one next time
+			closeShared();
+			throw new IOException("Octave stopped while solving");
+		}
+		return ok;
+	}
+
+	private static String quote(String s){
+		//Single quoted Octave string, so backslashes in paths are left alone
+		return "'" + s.replace("'", "''") + "'";
+	}
+
+	private void close(){
+		commands.println("exit");
+		commands.close();
+		try{
+			octave.waitFor();
+			output.close();
+		}
+		catch(InterruptedException e){
+			octave.destroy();
+		}
+		catch(IOException e){
+			//Nothing left to read
+		}
+	}
+}
@@ -55,11 +55,13 @@ public class CMPoint2PointConstraint implements CMConstraint{
 		}
 	}
 	
-	public void updateTime(){
-		long currentTime = sim.getCurrentTimeMicroseconds()/1000;
-		if (currentTime - initialTime > life){
-			isActive = false;
-		}
+	public long getBreakTime(){
+		//breaks once more than life milliseconds have passed
+		return (initialTime + life) * 1000 + 1;
+	}
+	
+	public void expire(){
+		isActive = false;
 	}
 	
 	public boolean isActive(){
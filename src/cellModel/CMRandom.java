@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMRandom.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+/**
+ * @author tagsit
+ * A stream of random numbers that belongs to one cell, constraint or part of the simulation.
+ * Each stream is derived from the simulation seed, the kind of thing that owns it (the domain)
+ * and its index within that domain, so the numbers a cell draws do not depend on how many
+ * other cells there are or on which thread updates it.
+ * Uses the SplitMix64 generator. Streams are not thread-safe - each one has a single owner.
+ */
+public class CMRandom {
+	//Domains of random streams
+	public static final int SIMULATION = 0, PLACEMENT = 1, CELL = 2, CONSTRAINT = 3;
+	public static final int NUM_DOMAINS = 4;
+	
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	private long state;
+	private double nextGaussian;
+	private boolean haveNextGaussian = false;
+	
+	public CMRandom(long seed, int domain, long index){
+		long domainSeed = mix64(seed + (domain + 1) * GOLDEN_GAMMA);
+		state = mix64(domainSeed ^ mix64(index + GOLDEN_GAMMA));
+	}
+	
+	private static long mix64(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	public long nextLong(){
+		state += GOLDEN_GAMMA;
+		return mix64(state);
+	}
+	
+	public float nextFloat(){
+		//uniform in [0, 1)
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+	
+	public double nextDouble(){
+		//uniform in [0, 1)
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+	
+	public double nextGaussian(){
+		//Polar method, as in java.util.Random
+		if (haveNextGaussian){
+			haveNextGaussian = false;
+			return nextGaussian;
+		}
+		double v1, v2, s;
+		do{
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = Math.sqrt(-2 * Math.log(s)/s);
+		nextGaussian = v2 * multiplier;
+		haveNextGaussian = true;
+		return v1 * multiplier;
+	}
+}
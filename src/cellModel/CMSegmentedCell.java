@@ -15,13 +15,15 @@
 package cellModel;
 
 
+import java.util.HashMap;
+
 import javax.vecmath.Vector3f;
 
 import cellModel.shapes.CMGImpactMeshSphere;
 
 import com.bulletphysics.collision.narrowphase.ManifoldPoint;
 import com.bulletphysics.collision.shapes.CollisionShape;
-import com.bulletphysics.collision.shapes.TriangleCallback;
+import com.bulletphysics.collision.shapes.SphereShape;
 import com.bulletphysics.demos.opengl.IGL;
 import com.bulletphysics.dynamics.RigidBody;
 import com.bulletphysics.dynamics.RigidBodyConstructionInfo;
@@ -39,6 +41,13 @@ import static com.bulletphysics.demos.opengl.IGL.*;
 public class CMSegmentedCell extends CMCell{
 	
 	private static int cell_ids = 0;
+	//Shapes and mesh data for each detail level and radius. They never change, so cells share them
+	private static HashMap<Long, CellGeometry> geometries = new HashMap<Long, CellGeometry>();
+	private static ThreadLocal<ContactScratch> contactScratch = new ThreadLocal<ContactScratch>(){
+		protected ContactScratch initialValue(){
+			return new ContactScratch();
+		}
+	};
 	
 	
 	private CMRigidBody body;
@@ -58,13 +67,11 @@ public class CMSegmentedCell extends CMCell{
 	private float volume;
 	private float[] freeColor = {1.0f, .8f, .8f};
 	private float[] boundColor = {.8f, .8f, 1.0f};
-	private float[][] freeProteins;
-	private float[][] boundProteins;
-	private float[][] boundEndocytosisRates;
-	private float[][] unboundEndocytosisRates;
-	private float[][] exocytosisRates;
-	private float[] triangleAreas;
-	private float[] ligandConc;
+	private CMMembraneStore store; //protein amounts and ligand concentrations, shared by all cells
+	private int offset; //index of this cell's first segment in the store
+	private boolean proteinsSet = false;
+	private float[] triangleAreas; //shared with other cells of the same shape - do not change
+	private float[] centroidX; //local x coordinate of each triangle's centroid, where the ligand is measured. Shared
 	private float cellSurfaceArea;
 	private boolean viewFreeReceptors = true;
 	private float[][] color;
@@ -74,9 +81,7 @@ public class CMSegmentedCell extends CMCell{
 	
 	private Transform trans;
 	private Vector3f origin;
-	
-	private static Vector3f aabbMax = new Vector3f(1e30f, 1e30f, 1e30f);
-	private static Vector3f aabbMin = new Vector3f(-1e30f, -1e30f, -1e30f);
+	private CMRandom random;
 	
 	private static float[] glMat = new float[16];
 	
@@ -90,6 +95,7 @@ public class CMSegmentedCell extends CMCell{
 		super(s, o);
 		this.origin = new Vector3f(o);
 		this.sim = s;
+		random = sim.getRandomStream(CMRandom.CELL);
 		myId = cell_ids;
 		cell_ids++;
 		this.radius = r;
@@ -103,11 +109,21 @@ public class CMSegmentedCell extends CMCell{
 		if (detail_level > 3){
 			detail_level = 3;
 		}
-		cellShape = new CMGImpactMeshSphere(detail_level);
-		cellShape.setLocalScaling(new Vector3f(radius, radius, radius));
-		cellShape.updateBound();
+		CellGeometry geometry = getGeometry(detail_level, radius);
+		cellShape = geometry.shape;
+		triangleAreas = geometry.triangleAreas;
+		centroidX = geometry.centroidX;
+		cellSurfaceArea = geometry.surfaceArea;
+		//The mesh is always kept for the segments. Colliding as a sphere is much cheaper than as a mesh
+		CollisionShape collisionShape = cellShape;
+		if (sim.useSphereCollisions()){
+			collisionShape = geometry.sphere;
+		}
+		else{
+			sim.setNeedsGImpact(true);
+		}
 		Vector3f localInertia = new Vector3f(0, 0, 0);
-		cellShape.calculateLocalInertia(mass, localInertia);
+		collisionShape.calculateLocalInertia(mass, localInertia);
 		//System.out.println("shape " + cellShape);
 		
 		trans = new Transform();
@@ -116,32 +132,18 @@ public class CMSegmentedCell extends CMCell{
 		
 		//System.out.println("local inertia " + localInertia + " radius: " + radius);
 		DefaultMotionState motionState = new DefaultMotionState(trans);
-		RigidBodyConstructionInfo rbInfo = new RigidBodyConstructionInfo(mass, motionState, cellShape, localInertia);
+		RigidBodyConstructionInfo rbInfo = new RigidBodyConstructionInfo(mass, motionState, collisionShape, localInertia);
 		body = new CMRigidBody(rbInfo, this);
 		numSegments = cellShape.getNumTriangles();
 		
-		sim.setNeedsGImpact(true);
-		
-		//System.out.println("Total surface area: " + cellSurfaceArea);
-		triangleAreas = new float[numSegments];
-		
-		triangleAreaCallback areaCallback = new triangleAreaCallback(this);
-		cellShape.processAllTriangles(areaCallback, aabbMin, aabbMax);
-		cellSurfaceArea = 0;
-		for (int i = 0; i < numSegments; i++){
-			cellSurfaceArea += triangleAreas[i];
-			//System.out.println("triangle " + i + " surface area " + triangleAreas[i]);
-		}
-		//System.out.println("surface area: " + cellSurfaceArea);
-		
-		ligandConc = new float[numSegments];
+		store = sim.getMembraneStore();
+		offset = store.allocate(numSegments);
 		color = new float[numSegments][];
 		for (int i = 0; i < numSegments; i++){
 			color[i] = new float[3];
 			for (int j = 0; j < 3; j++){
-				color[i][j] = (float)Math.random();
+				color[i][j] = random.nextFloat();
 			}
-			ligandConc[i] = 0f;
 		}
 		objectType = "Segmented Cell";
 		motility = sim.getMotitlity();
@@ -152,6 +154,40 @@ public class CMSegmentedCell extends CMCell{
 		
 	}
 	
+	private static synchronized CellGeometry getGeometry(int detailLevel, float radius){
+		Long key = Long.valueOf(((long)detailLevel << 32) | (Float.floatToIntBits(radius) & 0xffffffffL));
+		CellGeometry geometry = geometries.get(key);
+		if (geometry == null){
+			geometry = new CellGeometry(detailLevel, radius);
+			geometries.put(key, geometry);
+		}
+		return geometry;
+	}
+	
+	private static class CellGeometry{
+		//The scaled sphere and what the cells need to know about its triangles
+		CMGImpactMeshSphere shape;
+		SphereShape sphere; //for colliding as a sphere
+		float[] triangleAreas;
+		float[] centroidX;
+		float surfaceArea = 0;
+		
+		CellGeometry(int detailLevel, float radius){
+			shape = new CMGImpactMeshSphere(detailLevel);
+			shape.setLocalScaling(new Vector3f(radius, radius, radius));
+			shape.updateBound();
+			sphere = new SphereShape(radius);
+			int numTriangles = shape.getNumTriangles();
+			triangleAreas = new float[numTriangles];
+			centroidX = new float[numTriangles];
+			for (int i = 0; i < numTriangles; i++){
+				triangleAreas[i] = shape.getTriangleArea(i);
+				centroidX[i] = shape.getTriangleCentroidX(i);
+				surfaceArea += triangleAreas[i];
+			}
+		}
+	}
+	
 	public static CMBioObjGroup fillSpace(CMSimulation sim, int numCell, float r, int dl, Vector3f minP, Vector3f maxP, String name, boolean setPro){
 		//Will evenly spread the cells throughout the space
 		//If the space is not big enough for the cells, it will evenly spread out the maximum
@@ -218,12 +254,13 @@ public class CMSegmentedCell extends CMCell{
 		}
 		
 		//get a random order for placing the cells
+		CMRandom placement = sim.getRandomStream(CMRandom.PLACEMENT);
 		int[] indices = new int[max_cells];
 		for (int i = 0; i < max_cells; i++){
 			indices[i] = i;
 		}
 		for (int i = 0; i < max_cells; i++){
-			int swap_index = (int)(sim.nextRandomF() * max_cells);
+			int swap_index = (int)(placement.nextFloat() * max_cells);
 			int temp = indices[i];
 			indices[i] = indices[swap_index];
 			indices[swap_index] = temp;
@@ -262,45 +299,40 @@ public class CMSegmentedCell extends CMCell{
 		return cellShape;
 	}
 	
+	public int getSegment(Vector3f localPoint){
+		//The membrane segment at a point given in the cell's frame
+		return cellShape.findTriangle(localPoint);
+	}
+	
 	public CMRigidBody getRigidBody(){
 		return body;
 	}
 	
 	public void setProteins(){
-		int numProteins = sim.getNumProteins();
+		int numProteins = store.getNumProteins();
 		if (numProteins > 0){
-			int numTriangles = cellShape.getNumTriangles();
-			freeProteins = new float[numTriangles][numProteins];
-			boundProteins = new float[numTriangles][numProteins];
-			boundEndocytosisRates = new float[numTriangles][numProteins];
-			unboundEndocytosisRates = new float[numTriangles][numProteins];
-			exocytosisRates = new float[numTriangles][numProteins];
-			for (int i = 0; i < numTriangles; i++){
-				freeProteins[i] = new float[numProteins];
-				boundProteins[i] = new float[numProteins];
-				boundEndocytosisRates[i] = new float[numProteins];
-				unboundEndocytosisRates[i] = new float[numProteins];
-				exocytosisRates[i] = new float[numProteins];
-				for (int j = 0; j < numProteins; j++){
-					CMMembraneProtein pro = sim.getProtein(j);
-					float totalProteins = pro.getInitialProteins(1.0f);
-					freeProteins[i][j] = pro.getInitialProteins(triangleAreas[i]/cellSurfaceArea);
-					boundProteins[i][j] = 0;
-					//System.out.println("Total Protein: " + totalProteins + " Seg: " + i + " Pro: " + j + " Free: " + freeProteins[i][j] + " Bound: " + boundProteins[i][j]);
-					boundEndocytosisRates[i][j] = pro.getBoundEndocytosisRate();
-					unboundEndocytosisRates[i][j] = pro.getUnboundEndocytosisRate();
-					exocytosisRates[i][j] = pro.getExocytosisRate() * triangleAreas[i]/cellSurfaceArea;
+			//Endocytosis rates are the same on every segment, so they are taken from the protein when needed
+			for (int j = 0; j < numProteins; j++){
+				CMMembraneProtein pro = sim.getProtein(j);
+				float[] free = store.getFree(j);
+				float[] bound = store.getBound(j);
+				float[] exocytosis = store.getExocytosis(j);
+				for (int i = 0; i < numSegments; i++){
+					free[offset + i] = pro.getInitialProteins(triangleAreas[i]/cellSurfaceArea);
+					bound[offset + i] = 0;
+					//System.out.println("Seg: " + i + " Pro: " + j + " Free: " + free[offset + i] + " Bound: " + bound[offset + i]);
+					exocytosis[offset + i] = pro.getExocytosisRate() * triangleAreas[i]/cellSurfaceArea;
 				}
 			}
+			proteinsSet = true;
 		}
 		currentVisualizingProtein = sim.getViewingProtein();
 	}
 	
 	
 	public void collided(CMBioObj c, ManifoldPoint pt, long collId){
-		if (sim.constraintExists(collId)){
-			sim.checkInConstraints(collId); //check in to all constraints from this collision
-			return;
+		if (sim.checkInConstraints(collId)){
+			return; //checked in to all constraints from this collision
 		}
 		if (c instanceof CMWall){
 			//Find out if the wall has laminin on it
@@ -310,9 +342,11 @@ public class CMSegmentedCell extends CMCell{
 				return;
 			}
 			
-			Transform myTrans = new Transform();
+			//Everything here is done in reused storage so contacts don't make garbage
+			ContactScratch scratch = contactScratch.get();
+			Transform myTrans = scratch.myTrans;
 			body.getMotionState().getWorldTransform(myTrans);
-			Transform otherTrans = new Transform();
+			Transform otherTrans = scratch.otherTrans;
 			c.getRigidBody().getMotionState().getWorldTransform(otherTrans);
 				
 			//Find out the triangle which is colliding
@@ -331,10 +365,8 @@ public class CMSegmentedCell extends CMCell{
 			float lamininDensity = wall.getLamininDensity();
 				
 			//Find the vertices of the triangle
-			Vector3f[] vertices = new Vector3f[3];
-			triangleVerticesCallback tcb = new triangleVerticesCallback(triangleIndex);
-			cellShape.processAllTriangles(tcb, aabbMin, aabbMax);
-			vertices = tcb.getVertices();
+			Vector3f[] vertices = scratch.vertices;
+			cellShape.getTriangleVertices(triangleIndex, vertices);
 			//TODO - should we just update the Transform whenever we update?
 			//sim.writeToLog("   Finding Triangle Vertices: ");
 			for (int i = 0; i < vertices.length; i++){
@@ -346,8 +378,8 @@ public class CMSegmentedCell extends CMCell{
 			//For simplicities sake, we project the membrane segment's triangle onto the laminin-coated wall
 			//We are currently assuming that the wall is below the triangle
 			//TODO Figure out where the wall is in relation to the triangle
-			Vector3f min = new Vector3f();
-			Vector3f max = new Vector3f();
+			Vector3f min = scratch.min;
+			Vector3f max = scratch.max;
 			wall.getRigidBody().getAabb(min, max);
 			float wallY = max.y;
 			
@@ -355,12 +387,12 @@ public class CMSegmentedCell extends CMCell{
 			//Find the area of the triangle projected onto the wall
 			//Find the number of laminin molecules on this area of the wall
 			//We are going to project onto xz plane - this should be generalized!
-			Vector3f[] wallVert = new Vector3f[3];
+			Vector3f[] wallVert = scratch.wallVertices;
 			for (int i = 0; i < 3; i++){
-				wallVert[i] = new Vector3f(vertices[i].x, wallY, vertices[i].z);
+				wallVert[i].set(vertices[i].x, wallY, vertices[i].z);
 				//sim.writeToLog("   Wall Vertex[" + i + "] " + wallVert[i]);
 			}
-			float wallArea = findTriangleArea(wallVert);
+			float wallArea = findTriangleArea(wallVert, scratch);
 			float lamininMolecules = lamininDensity * wallArea;
 			//sim.writeToLog("   laminin molecules: " + lamininMolecules);
 			
@@ -374,14 +406,14 @@ public class CMSegmentedCell extends CMCell{
 				//sim.writeToLog("   Protein binding " + pro.getName());
 				//Find the number of unbound integrin molecules on the segment
 				//System.out.println("Protein " + pro.getName());
-				int unboundProteins = (int)freeProteins[triangleIndex][i];
+				int unboundProteins = (int)store.getFree(i)[offset + triangleIndex];
 				//sim.writeToLog("   unbound proteins: " + unboundProteins);
 				if (unboundProteins < molsPerConstraint){
 					continue;
 				}
 					
 				//Find out the number of constraints formed with this protein
-				int newBound = pro.bindReceptors((int)lamininMolecules, unboundProteins);
+				int newBound = pro.bindReceptors((int)lamininMolecules, unboundProteins, random);
 				newBound = Math.min(newBound, unboundProteins);
 				int numConstraints = newBound/molsPerConstraint;
 				//sim.writeToLog("   Binding Proteins: " + newBound);
@@ -395,21 +427,22 @@ public class CMSegmentedCell extends CMCell{
 				for (int j = 0; j < numConstraints; j++){
 					//Find a random point on the triangle
 					//get two vectors on the triangle
-					Vector3f ab = new Vector3f(vertices[1]);
-					ab.sub(vertices[0]);
+					Vector3f ab = scratch.ab;
+					ab.sub(vertices[1], vertices[0]);
 					//System.out.println(vertices[1] + " - " + vertices[0] + " = " + ab);
-					Vector3f ac = new Vector3f(vertices[2]);
-					ac.sub(vertices[0]);
+					Vector3f ac = scratch.ac;
+					ac.sub(vertices[2], vertices[0]);
 					//System.out.println(vertices[2] + " - " + vertices[0] + " = " + ac);
-					float r = sim.nextRandomF();
-					float s = sim.nextRandomF();
+					float r = random.nextFloat();
+					float s = random.nextFloat();
 					if (r + s >= 1){
 						r = 1 - r;
 						s = 1 - s;
 					}
 					ab.scale(r);
 					ac.scale(s);
-					Vector3f randVec = new Vector3f(vertices[0]);
+					Vector3f randVec = scratch.randVec;
+					randVec.set(vertices[0]);
 					randVec.add(ab);
 					randVec.add(ac);
 					//sim.writeToLog("Random Triangle Point: " + randVec);
@@ -418,11 +451,14 @@ public class CMSegmentedCell extends CMCell{
 					float yDist = Math.abs(randVec.y - wallY);
 					if (yDist <= 2.5){
 						//make the constraint
-						Vector3f wallVec = new Vector3f(randVec.x, wallY, randVec.z);
+						Vector3f wallVec = scratch.wallVec;
+						wallVec.set(randVec.x, wallY, randVec.z);
 						//sim.writeToLog("Random Wall Point: " + wallVec);
 						//We need the points on the cell and on the wall in the local frames of reference
 						
-						Transform cellTrans = new Transform(myTrans);
+						//The constraint copies these transforms, so the scratch ones can be reused
+						Transform cellTrans = scratch.cellTrans;
+						cellTrans.set(myTrans);
 						cellTrans.inverse();
 						cellTrans.transform(randVec);
 						cellTrans.origin.set(randVec);
@@ -432,7 +468,8 @@ public class CMSegmentedCell extends CMCell{
 						//sim.writeToLog("cellTrans origin " + cellTrans.origin);
 						//sim.writeToLog("cellTrans basis " + cellTrans.basis);
 						
-						Transform wallTrans = new Transform(otherTrans);
+						Transform wallTrans = scratch.wallTrans;
+						wallTrans.set(otherTrans);
 						wallTrans.inverse();
 						wallTrans.transform(wallVec);
 						wallTrans.origin.set(wallVec);
@@ -455,8 +492,8 @@ public class CMSegmentedCell extends CMCell{
 						
 
 						//sim.addConstraint(con);
-						freeProteins[triangleIndex][i] -= molsPerConstraint; //remove free proteines
-						boundProteins[triangleIndex][i] += molsPerConstraint; //add bound proteins
+						store.getFree(i)[offset + triangleIndex] -= molsPerConstraint; //remove free proteines
+						store.getBound(i)[offset + triangleIndex] += molsPerConstraint; //add bound proteins
 						//sim.writeToLog("      Made a constraint");
 						
 					}//end if constraint is short enough
@@ -468,16 +505,57 @@ public class CMSegmentedCell extends CMCell{
 		}//end if collision is with a wall
 	}//end collided
 	
+	public void updateInternalState(){
+		//Only touches this cell's membrane arrays, so cells can be updated in parallel
+		//update the proteins
+		float deltaTime = sim.getDeltaTimeMilliseconds()/60f/1000;
+		long time = sim.getCurrentTimeMicroseconds()/1000;
+		updateMembraneProteins(time, deltaTime);
+		
+		//set the segment colors
+		float percent = 0f;
+		CMMembraneProtein pro = sim.getProtein(currentVisualizingProtein);
+		float maxDensity = pro.getMaxDensity();
+		float[] c = new float[3];
+		float[] free = store.getFree(currentVisualizingProtein);
+		float[] bound = store.getBound(currentVisualizingProtein);
+		for (int i = 0; i < numSegments; i++){
+			if (viewFreeReceptors){
+				percent = (free[offset + i]/triangleAreas[i])/maxDensity;
+				c = freeColor;
+			}
+			else{
+				percent = bound[offset + i]/triangleAreas[i]/maxDensity;
+				c = boundColor;
+			}
+			setSegmentColor(i, c[0] * percent, c[1] * percent, c[2] * percent);
+		}
+	}
+	
+	private void updateMembraneProteins(long time, float deltaTime){
+		//find the ligand concentration at each segment
+		float[] ligand = store.getLigand();
+		sim.getLigandConcentrations(centroidX, numSegments, time, ligand, offset);
+		if (deltaTime <= 0 || !proteinsSet){
+			return;
+		}
+		//Segments do not affect each other, so each protein updates the whole cell at once
+		for (int j = 0; j < store.getNumProteins(); j++){
+			sim.getProtein(j).updateReceptors(ligand, store.getFree(j), store.getBound(j), store.getExocytosis(j), offset, offset + numSegments, deltaTime);
+		}
+	}
+	
 	public void updateObject(){
+		//Changes to the rigid body happen here, one cell at a time
 		if (!body.isActive()){
 			//System.out.println("Cell " + this.id + " has been deactivated.");
 			body.activate();
 		}
 		callsToUpdateObject++;
 		//randomly rotate
-		int axis = (int)(sim.nextRandomF() * 3);
-		float direction = sim.nextRandomF(); //zero or one
-		float vel = sim.nextRandomF() * motility;
+		int axis = (int)(random.nextFloat() * 3);
+		float direction = random.nextFloat(); //zero or one
+		float vel = random.nextFloat() * motility;
 		if (direction < .5){
 			vel = -vel;
 		}
@@ -488,33 +566,11 @@ public class CMSegmentedCell extends CMCell{
 		velVec[axis] = vel;
 		//body.setAngularVelocity(new Vector3f(velVec));
 		body.applyTorque(new Vector3f(velVec));
-		
-		//update the proteins
-		updateProteinsCallback proCallback = new updateProteinsCallback(this);
-		cellShape.processAllTriangles(proCallback, aabbMin, aabbMax);
-		
-		//set the segment colors
-		float percent = 0f;
-		CMMembraneProtein pro = sim.getProtein(currentVisualizingProtein);
-		float maxDensity = pro.getMaxDensity();
-		float[] c = new float[3];
-		for (int i = 0; i < numSegments; i++){
-			if (viewFreeReceptors){
-				percent = (freeProteins[i][currentVisualizingProtein]/triangleAreas[i])/maxDensity;
-				c = freeColor;
-			}
-			else{
-				percent = boundProteins[i][currentVisualizingProtein]/triangleAreas[i]/maxDensity;
-				c = boundColor;
-			}
-			setSegmentColor(i, c[0] * percent, c[1] * percent, c[2] * percent);
-		}
-		
 	}
 	
 	public void reclaimMembraneProteins(int segment, int pro){
-		boundProteins[segment][pro] -= molsPerConstraint;
-		freeProteins[segment][pro] += molsPerConstraint;
+		store.getBound(pro)[offset + segment] -= molsPerConstraint;
+		store.getFree(pro)[offset + segment] += molsPerConstraint;
 	}
 	
 	public boolean specialRender(IGL gl, Transform t){
@@ -522,8 +578,11 @@ public class CMSegmentedCell extends CMCell{
 		t.getOpenGLMatrix(glMat);
 		gl.glMultMatrix(glMat);
 		
-		drawSegmentsCallback drawCallback = new drawSegmentsCallback(gl, this);
-		cellShape.processAllTriangles(drawCallback, aabbMin, aabbMax);
+		Vector3f[] triangle = {new Vector3f(), new Vector3f(), new Vector3f()};
+		for (int i = 0; i < numSegments; i++){
+			cellShape.getTriangleVertices(i, triangle);
+			drawSegment(gl, triangle, color[i]);
+		}
 		gl.glPopMatrix();
 		
 		return true;
@@ -552,37 +611,45 @@ public class CMSegmentedCell extends CMCell{
 	}
 	
 	public float getDensity(int segment, int protein, boolean freeDen){
-		if (freeDen && freeProteins != null){
-			return freeProteins[segment][protein];
+		if (!proteinsSet){
+			return 0f;
 		}
-		if (!freeDen && boundProteins != null){
-			return boundProteins[segment][protein];
+		if (freeDen){
+			return store.getFree(protein)[offset + segment];
 		}
-		return 0f;
+		return store.getBound(protein)[offset + segment];
 	}
 	
 	public float getTriangleLigandConc(int index){
-		return ligandConc[index];
+		return store.getLigand()[offset + index];
 	}
 	
-	private float findTriangleArea(Vector3f[] vertices){
-		//Find the lengths of the sides
-		float a = (float)Math.sqrt(Math.pow((vertices[1].x - vertices[0].x), 2) +
-				Math.pow((vertices[1].y - vertices[0].y), 2) + Math.pow((vertices[1].z - vertices[0].z), 2));
-		float b = (float)Math.sqrt(Math.pow((vertices[2].x - vertices[1].x), 2) +
-				Math.pow((vertices[2].y - vertices[1].y), 2) + Math.pow((vertices[2].z - vertices[1].z), 2));
-		float c = (float)Math.sqrt(Math.pow((vertices[2].x - vertices[0].x), 2) +
-				Math.pow((vertices[2].y - vertices[0].y), 2) + Math.pow((vertices[2].z - vertices[0].z), 2));
-		//Use Heron's forumla
-		float s = (float)(.5 * (a + b + c));
-		
-		float area = (float)(Math.sqrt(s * (s-a) * (s-b) * (s-c)));
-		//System.out.println("Finding area for: ");
-		//for (int i = 0; i < 3; i++){
-		//	System.out.print(vertices[i].toString() + " ");
-		//}
-		//System.out.println(" Area: " + area);
-		return area;
+	private static float findTriangleArea(Vector3f[] vertices, ContactScratch scratch){
+		//Half the length of the cross product of two sides
+		Vector3f ab = scratch.ab;
+		Vector3f ac = scratch.ac;
+		Vector3f crossProd = scratch.crossProd;
+		ab.sub(vertices[1], vertices[0]);
+		ac.sub(vertices[2], vertices[0]);
+		crossProd.cross(ab, ac);
+		return crossProd.length() / 2f;
+	}
+	
+	private static class ContactScratch{
+		//Vectors and transforms for collided to reuse. Each thread has its own
+		Transform myTrans = new Transform();
+		Transform otherTrans = new Transform();
+		Transform cellTrans = new Transform();
+		Transform wallTrans = new Transform();
+		Vector3f[] vertices = {new Vector3f(), new Vector3f(), new Vector3f()};
+		Vector3f[] wallVertices = {new Vector3f(), new Vector3f(), new Vector3f()};
+		Vector3f min = new Vector3f();
+		Vector3f max = new Vector3f();
+		Vector3f ab = new Vector3f();
+		Vector3f ac = new Vector3f();
+		Vector3f crossProd = new Vector3f();
+		Vector3f randVec = new Vector3f();
+		Vector3f wallVec = new Vector3f();
 	}
 	
 	public String finalOutput(){
@@ -595,104 +662,22 @@ public class CMSegmentedCell extends CMCell{
 		return finalString;
 	}
 	
-	private static class drawSegmentsCallback extends TriangleCallback {
-		private IGL gl;
-		CMSegmentedCell parent;
-
-		public drawSegmentsCallback(IGL gl, CMSegmentedCell p) {
-			this.gl = gl;
-			this.parent = p;
-		}
-		
-		public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
-			float[] color = parent.getSegmentColor(triangleIndex);
-			gl.glBegin(GL_TRIANGLES);
-			gl.glColor3f(color[0], color[1], color[2]);
-			gl.glVertex3f(triangle[0].x, triangle[0].y, triangle[0].z);
-			//gl.glColor3f(color[0]);
-			gl.glVertex3f(triangle[1].x, triangle[1].y, triangle[1].z);
-			//gl.glColor3f(1, 0, 0);
-			gl.glVertex3f(triangle[2].x, triangle[2].y, triangle[2].z);
-			gl.glEnd();
-			gl.glBegin(GL_LINES);
-			gl.glColor3f(0f, 0f, 0f);
-			gl.glVertex3f(triangle[0].x, triangle[0].y, triangle[0].z);
-			gl.glVertex3f(triangle[1].x, triangle[1].y, triangle[1].z);
-			gl.glVertex3f(triangle[2].x, triangle[2].y, triangle[2].z);
-			gl.glVertex3f(triangle[0].x, triangle[0].y, triangle[0].z);
-			gl.glEnd();
-		}
-	}
-	
-	private static class updateProteinsCallback extends TriangleCallback {
-		CMSegmentedCell parent;
-
-		public updateProteinsCallback(CMSegmentedCell p) {
-			this.parent = p;
-		}
-		
-		public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
-			//find the ligand concentration
-			//System.out.print("Current time " + time + " area: " + area);
-			float x_dist = (float)((triangle[0].x + triangle[1].x + triangle[2].x)/3.0);
-			//System.out.print(" x dist: " + x_dist);
-			float ligand = parent.sim.getLigandConcentration(x_dist, parent.sim.getCurrentTimeMicroseconds()/1000);
-			parent.ligandConc[triangleIndex] = ligand;
-			float deltaTime = parent.sim.getDeltaTimeMilliseconds()/60f/1000;
-			//System.out.println(" deltaTime: " + deltaTime);
-			if (deltaTime > 0){
-				for (int i = 0; i < parent.sim.getNumProteins(); i++){
-					//update the free receptors
-					parent.freeProteins[triangleIndex][i] = parent.sim.getProtein(i).updateFreeReceptors(ligand, parent.boundProteins[triangleIndex][i], parent.freeProteins[triangleIndex][i], parent.unboundEndocytosisRates[triangleIndex][i], parent.exocytosisRates[triangleIndex][i], deltaTime);
-					//update the bound receptors
-					parent.boundProteins[triangleIndex][i] = parent.sim.getProtein(i).updateBoundReceptors(ligand, parent.boundProteins[triangleIndex][i], parent.freeProteins[triangleIndex][i], parent.boundEndocytosisRates[triangleIndex][i], deltaTime);
-					//System.out.println("Segment: " + triangleIndex + " free: " + parent.freeDensities[triangleIndex][i] + " bound: " + parent.boundDensities[triangleIndex][i]);
-				}
-			}
-			
-		}
-	}
-	
-	private static class triangleAreaCallback extends TriangleCallback {
-		CMSegmentedCell parent;
-
-		public triangleAreaCallback(CMSegmentedCell p) {
-			this.parent = p;
-		}
-		
-		public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
-			//System.out.println("Processing triangle areas");
-			//find the area
-				
-			float area = parent.findTriangleArea(triangle);
-			parent.triangleAreas[triangleIndex] = area;
-			//System.out.println("triangle " + triangleIndex + " area " + area);
-			
-		}
-	}
-	
-	private static class triangleVerticesCallback extends TriangleCallback {
-		Vector3f[] vertices;
-		int index;
-
-		public triangleVerticesCallback(int i) {
-			vertices = new Vector3f[3];
-			index = i;
-		}
-		
-		public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
-			if (triangleIndex == index){
-				for (int i = 0; i < 3; i++){
-					vertices[i] = new Vector3f(triangle[i]);
-				}
-				return;
-			}
-			
-		}
-		
-		public Vector3f[] getVertices(){
-			return vertices;
-		}
+	private static void drawSegment(IGL gl, Vector3f[] triangle, float[] color){
+		gl.glBegin(GL_TRIANGLES);
+		gl.glColor3f(color[0], color[1], color[2]);
+		gl.glVertex3f(triangle[0].x, triangle[0].y, triangle[0].z);
+		//gl.glColor3f(color[0]);
+		gl.glVertex3f(triangle[1].x, triangle[1].y, triangle[1].z);
+		//gl.glColor3f(1, 0, 0);
+		gl.glVertex3f(triangle[2].x, triangle[2].y, triangle[2].z);
+		gl.glEnd();
+		gl.glBegin(GL_LINES);
+		gl.glColor3f(0f, 0f, 0f);
+		gl.glVertex3f(triangle[0].x, triangle[0].y, triangle[0].z);
+		gl.glVertex3f(triangle[1].x, triangle[1].y, triangle[1].z);
+		gl.glVertex3f(triangle[2].x, triangle[2].y, triangle[2].z);
+		gl.glVertex3f(triangle[0].x, triangle[0].y, triangle[0].z);
+		gl.glEnd();
 	}
 
 
@@ -57,6 +57,13 @@ public class CMSimGenerator {
 	public long seed = 0;
 	public int speedUp = 1;
 	public float motility = 1.0f;
+	public boolean headless = false; //run without a display as fast as possible
+	public float fixedTimeStep = 0; //seconds of simulated time per frame. 0 follows the wall clock
+	public int numThreads = 0; //threads for updating objects. 0 uses every available processor
+	public String solver = CMConcentrationSolver.JAVA_SOLVER; //how to solve the concentration PDE: java, octave or erfc
+	public String solutionCache = ""; //directory of solved concentration profiles. Empty uses CM-solutionCache next to the data directory
+	public long solutionCacheMB = 256; //largest size of the solution cache. 0 turns the cache off
+	public boolean sphereCollisions = false; //segmented cells collide as spheres instead of triangle meshes
 	
 	public CMSimGenerator(File base, long sd){
 		seed = sd;
@@ -240,12 +247,83 @@ public class CMSimGenerator {
 				System.err.println("motility must be a float. Found " + val + ". Using default");
 			}
 		}
+		else if (v.compareTo("headless") == 0){
+			try{
+				headless = Boolean.parseBoolean(val);
+				System.out.println("headless set to " + headless);
+			}
+			catch(NumberFormatException e){
+				System.err.println("headless must be a boolean. Found " + val + ". Using default");
+			}
+		}
+		else if (v.compareTo("fixedTimeStep") == 0){
+			try{
+				fixedTimeStep = Float.parseFloat(val);
+				System.out.println("fixedTimeStep set to " + fixedTimeStep);
+			}
+			catch(NumberFormatException e){
+				System.err.println("fixedTimeStep must be a float. Found " + val + ". Using default");
+			}
+		}
+		else if (v.compareTo("numThreads") == 0){
+			try{
+				numThreads = Integer.parseInt(val);
+				System.out.println("numThreads set to " + numThreads);
+			}
+			catch(NumberFormatException e){
+				System.err.println("numThreads must be an integer. Found " + val + ". Using default");
+			}
+		}
+		else if (v.compareTo("solver") == 0){
+			if (val.compareTo(CMConcentrationSolver.JAVA_SOLVER) == 0 || val.compareTo(CMConcentrationSolver.OCTAVE_SOLVER) == 0 ||
+					val.compareTo(CMConcentrationSolver.ERFC_SOLVER) == 0){
+				solver = val;
+				System.out.println("solver set to " + solver);
+			}
+			else{
+				System.err.println("solver must be java, octave or erfc. Found " + val + ". Using default");
+			}
+		}
+		else if (v.compareTo("solutionCache") == 0){
+			solutionCache = val;
+			System.out.println("solutionCache set to " + solutionCache);
+		}
+		else if (v.compareTo("solutionCacheMB") == 0){
+			try{
+				solutionCacheMB = Long.parseLong(val);
+				System.out.println("solutionCacheMB set to " + solutionCacheMB);
+			}
+			catch(NumberFormatException e){
+				System.err.println("solutionCacheMB must be a long. Found " + val + ". Using default");
+			}
+		}
+		else if (v.compareTo("sphereCollisions") == 0){
+			try{
+				sphereCollisions = Boolean.parseBoolean(val);
+				System.out.println("sphereCollisions set to " + sphereCollisions);
+			}
+			catch(NumberFormatException e){
+				System.err.println("sphereCollisions must be a boolean. Found " + val + ". Using default");
+			}
+		}
 		else{
 			System.err.println("Variable " + v + " not known.");
 		}
 		
 	}
 	
+	public File getSolutionCacheDirectory(){
+		if (solutionCache.length() > 0){
+			return new File(solutionCache);
+		}
+		//Kept beside the dated data directories so later invocations share it
+		File parent = null;
+		if (dataDir != null){
+			parent = dataDir.getAbsoluteFile().getParentFile();
+		}
+		return new File(parent, "CM-solutionCache");
+	}
+	
 	public static void main(String[] args){
 		//Usage CMSimGenerator outputDirectory inputfile1 inputFile2 inputFile3...
 		long seed = System.currentTimeMillis();
@@ -301,6 +379,10 @@ public class CMSimGenerator {
 		for (int i = 0; i < csgs.length; i++){
 			CMSimulation sim = new CMSimulation(LWJGL.getGL(), csgs[i]);
 			sim.initPhysics();
+			if (csgs[i].headless){
+				CMHeadless.run(sim);
+				continue;
+			}
 			sim.getDynamicsWorld().setDebugDrawer(new GLDebugDrawer(LWJGL.getGL()));
 
 			try{
@@ -310,6 +392,8 @@ public class CMSimGenerator {
 				System.err.println("Could not run simulation.  Error: " + e.toString());
 			}
 		}
+		//The simulations share one Octave process. Stop it now that they are done
+		CMOctaveWorker.closeShared();
 	}
 	
 }
\ No newline at end of file
@@ -41,10 +41,10 @@ package cellModel;
 import com.bulletphysics.util.ObjectArrayList;
 import com.bulletphysics.collision.broadphase.BroadphaseInterface;
 import com.bulletphysics.collision.broadphase.DbvtBroadphase;
+import com.bulletphysics.BulletGlobals;
 import com.bulletphysics.collision.dispatch.CollisionDispatcher;
+import com.bulletphysics.collision.dispatch.CollisionFlags;
 import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
-import com.bulletphysics.collision.narrowphase.PersistentManifold;
-import com.bulletphysics.collision.narrowphase.ManifoldPoint;
 import com.bulletphysics.demos.opengl.DemoApplication;
 import com.bulletphysics.demos.opengl.IGL;
 import com.bulletphysics.demos.opengl.GLShapeDrawer;
@@ -63,7 +63,6 @@ import javax.vecmath.Vector3f;
 
 import static com.bulletphysics.demos.opengl.IGL.*;
 
-import java.util.Random;
 import java.util.TimeZone;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -72,6 +71,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * BasicDemo is good starting point for learning the code base and porting.
@@ -101,16 +102,25 @@ public class CMSimulation extends DemoApplication{
 	
 	private ObjectArrayList<CMBioObj> modelObjects = new ObjectArrayList<CMBioObj>();
 	private ObjectArrayList<CMBioObjGroup> objectGroups = new ObjectArrayList<CMBioObjGroup>();
-	private ObjectArrayList<CMConstraint> constraints = new ObjectArrayList<CMConstraint>();
+	private CMConstraintRegistry constraints = new CMConstraintRegistry();
 	private ObjectArrayList<CMMembraneProtein> proteins = new ObjectArrayList<CMMembraneProtein>();
 	private ObjectArrayList<CMProteinInteraction> interactions = new ObjectArrayList<CMProteinInteraction>();
 	private boolean proteinsAdded = false;
+	private CMMembraneStore membraneStore = null; //protein amounts for all segmented cells
+	private ThreadLocal<float[]> ligandScratch = new ThreadLocal<float[]>(){
+		protected float[] initialValue(){
+			return new float[0];
+		}
+	};
 	private BroadphaseInterface broadphase;
+	private DiscreteDynamicsWorld discreteWorld; //dynamicsWorld, kept with its own type so bodies can be added with filters
 	private CollisionDispatcher dispatcher;
 	private ConstraintSolver solver;
 	private DefaultCollisionConfiguration collisionConfiguration;
-	private Random random;
-	private long collisionID = 0L;
+	private CMRandom random; //stream for everything that does not have its own
+	private long[] streamsIssued = new long[CMRandom.NUM_DOMAINS];
+	private CMContactRegistry contacts = new CMContactRegistry(constraints);
+	private CMContactQueue contactQueue = new CMContactQueue(contacts); //contacts found during the step
 	private double summaryDelay = 50000; //Minimum number of microseconds between summary reports
 	private long startTime, oldTime, newTime, currentTime, lastWriteTime; //Units microseconds
 	private long deltaTime = 0L;
@@ -133,18 +143,35 @@ public class CMSimulation extends DemoApplication{
 	private float meanDeltaTime = 0;
 	private long numFrames = 0;
 	
+	private boolean fixedStep = false; //advance a simulated clock instead of following the wall clock
+	private long fixedDeltaTime = 1000000/60; //microseconds of simulated time per frame when using a fixed step
+	
+	private ForkJoinPool updatePool; //runs the independent part of each object's update
+	
 	public CMSimulation(IGL gl, CMSimGenerator gen){
 		super(gl);
 		setDebugMode(DebugDrawModes.DRAW_TEXT);
 		
 		generator = gen;
-		random = new Random(generator.seed);
+		random = getRandomStream(CMRandom.SIMULATION);
 		buf = new StringBuilder();
 
 		summaryDelay = (long)(generator.secBetweenOutput * 1000000);
 		summaryFormat.setTimeZone(TimeZone.getTimeZone(generator.timeZone)); //To get the right time formats, need Grenwhich Mean Time
 
 		timeBetweenFrames = (long)(generator.secBetweenImages * 1000000);
+		
+		int numThreads = generator.numThreads;
+		if (numThreads <= 0){
+			numThreads = Runtime.getRuntime().availableProcessors();
+		}
+		updatePool = new ForkJoinPool(numThreads);
+		
+		//Headless runs always use a fixed step so results do not depend on how fast frames are drawn
+		fixedStep = generator.headless || generator.fixedTimeStep > 0;
+		if (generator.fixedTimeStep > 0){
+			fixedDeltaTime = (long)(generator.fixedTimeStep * 1000000);
+		}
 		//Create output files
 		
 		try {	
@@ -187,7 +214,7 @@ public class CMSimulation extends DemoApplication{
 		//Generate solutions to microfluidic channel if sink < source
 		//TODO check for the solver in the pdepe directory
 		if (generator.sinkConc <= generator.sourceConc){
-			concentrationSolver = new CMConcentrationSolver(generator.baseFile.toString(), generator.pdepeDirectory, 1, 13000, 90000, generator.timeToSteadyState, generator.sourceConc, generator.sinkConc);
+			concentrationSolver = new CMConcentrationSolver(generator.baseFile.toString(), generator.pdepeDirectory, 1, 13000, generator.distFromSource, generator.distFromSource + generator.channelWidth, 90000, generator.timeToSteadyState, generator.sourceConc, generator.sinkConc, generator.solver, new CMSolutionCache(generator.getSolutionCacheDirectory(), generator.solutionCacheMB * 1024 * 1024));
 			//TODO What exception is thrown if the pdepe directory doesn't work?
 			//Can we check to see if one already exists?
 		}
@@ -209,13 +236,17 @@ public class CMSimulation extends DemoApplication{
 		CMProteinInteraction egfr_integrin = new CMProteinInteraction(this, 0, 1, .05f, .7f);
 		egfr_integrin.setMaxResponse(1.1f, CMProteinInteraction.EXOCYTOSIS);
 		//Set initial times
-		startTime = clock.getTimeMicroseconds(); //clock is inherited from DemoApplication
+		newTime = 0;
+		startTime = getStartClockTime();
 		currentTime = 0;
 		oldTime = startTime;
 		newTime = startTime;
 		lastWriteTime = 0;
 		lastImageWritten = 0;
 		lastImageTime = 0; //last time an image was captured
+		if (fixedStep){
+			writeToLog("Using fixed time step of " + fixedDeltaTime + " microseconds. speedUp is ignored.");
+		}
 	}
 	
 	public void initPhysics() {
@@ -233,10 +264,14 @@ public class CMSimulation extends DemoApplication{
 		SequentialImpulseConstraintSolver sol = new SequentialImpulseConstraintSolver();
 		solver = sol;
 		
-		dynamicsWorld = new DiscreteDynamicsWorld(dispatcher, broadphase, solver, collisionConfiguration);
+		discreteWorld = new DiscreteDynamicsWorld(dispatcher, broadphase, solver, collisionConfiguration);
+		dynamicsWorld = discreteWorld;
 
 		//Simulation takes place in fluid.  Gravity is set for individual cells
 		dynamicsWorld.setGravity(new Vector3f(0f, 0f, 0f));
+		//Contacts on cells are queued as the narrowphase finds them
+		BulletGlobals.setContactAddedCallback(contactQueue);
+		contactQueue.setFindSegments(useSphereCollisions());
 		
 		if(assayType == CMAssay.MICROFLUIDIC){
 			float distFromSource = generator.distFromSource;
@@ -275,8 +310,22 @@ public class CMSimulation extends DemoApplication{
 	
 	@Override
 	public void clientMoveAndDisplay() {
+		gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+		
+		advanceSimulation();
+		
+		// optional but useful: debug drawing
+		if (dynamicsWorld != null) {
+			dynamicsWorld.debugDrawWorld();
+		}
+		renderme();
+	}
+	
+	public void advanceSimulation() {
+		//Advances the biology, the physics and the output by one frame.
+		//Does not draw anything, so it can be driven without a display (see CMHeadless)
 		if (!firstOutputWritten){
-			startTime = clock.getTimeMicroseconds();
+			startTime = getStartClockTime();
 			oldTime = startTime;
 			currentTime = 0;
 			outputSummary();
@@ -287,17 +336,22 @@ public class CMSimulation extends DemoApplication{
 			writeToLog("Start Time: " + startTime + " current time: " + currentTime);
 		}
 		
+		//Sample the ligand across the channel once so the parallel updates only read it
+		if (assayType == CMAssay.MICROFLUIDIC && channel != null){
+			channel.updateSnapshot(currentTime/1000);
+		}
+		
+		//Update each object's own state in parallel, then change the rigid bodies in order
 		int numObjects = modelObjects.size();
+		updatePool.invoke(new UpdateTask(modelObjects, 0, numObjects));
 		for (int i = 0; i < numObjects; i++){
 			CMBioObj bioObj = modelObjects.getQuick(i);
 			bioObj.updateObject();
 			//writeToLog("Object updated: " + bioObj.getType() + " " + clock.getTimeMicroseconds());
 		}
 
-		gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-		// simple dynamics world doesn't handle fixed-time-stepping
 		oldTime = newTime;
-		newTime = clock.getTimeMicroseconds() * generator.speedUp;
+		newTime = getNextClockTime();
 		//writeToLog("New Time " + newTime);
 		//writeToLog("Old Time " + oldTime);
 		deltaTime = newTime - oldTime;
@@ -320,33 +374,19 @@ public class CMSimulation extends DemoApplication{
 
 		// step the simulation
 		if (dynamicsWorld != null) {
-			dynamicsWorld.stepSimulation(deltaTime / 1000000f);
-			// optional but useful: debug drawing
-			dynamicsWorld.debugDrawWorld();
-			
-			//Detect and take care of collisions
-			
-			int numManifolds = dynamicsWorld.getDispatcher().getNumManifolds();
-			for (int i=0;i<numManifolds;i++){
-				//System.out.println(collisionID);
-				PersistentManifold contactManifold =  dynamicsWorld.getDispatcher().getManifoldByIndexInternal(i);
-				CMRigidBody objA = (CMRigidBody)contactManifold.getBody0();
-				CMRigidBody objB = (CMRigidBody)contactManifold.getBody1();
-				int numContacts = contactManifold.getNumContacts();
-				for (int j=0; j<numContacts; j++){
-					ManifoldPoint pt = contactManifold.getContactPoint(j);
-					if (pt.getDistance()<.05f){ //to accont for length of laminin and integrin
-						objA.getParent().collided(objB.getParent(), pt, collisionID);
-						objB.getParent().collided(objA.getParent(), pt, collisionID);
-						collisionID++;
-						
-						if (collisionID >= Long.MAX_VALUE){
-							collisionID = 0L;
-						}
-						
-					}
-				}
+			if (fixedStep){
+				//Take enough internal substeps to cover the whole step
+				float stepSeconds = deltaTime / 1000000f;
+				int maxSubSteps = (int)Math.ceil(stepSeconds * 60f) + 1;
+				dynamicsWorld.stepSimulation(stepSeconds, maxSubSteps);
+			}
+			else{
+				dynamicsWorld.stepSimulation(deltaTime / 1000000f);
 			}
+			
+			//Take care of the collisions found during the step
+			contactQueue.dispatch();
+			contacts.endFrame();
 		}
 		
 		//remove objects marked for removal
@@ -356,20 +396,21 @@ public class CMSimulation extends DemoApplication{
 			group.cleanGroup();
 		}
 
-		int index = 0;
-		while(index < constraints.size()){
-			CMConstraint con = constraints.getQuick(index);
-			con.updateTime();
-			if (!con.isActive()){
-				//writeToLog("Removing collId " + con.getCollId() + " constraintId " + con.getConId() + " Used? " + con.hasBeenActive());
-				removeConstraint(con);
-			}
-			else{
-				index++;
-			}
+		//Constraints made this frame that never became active are removed now.
+		//The others were given a break time when they were made, so only remove those that are due
+		ObjectArrayList<CMConstraint> unused = constraints.scheduleCreated();
+		int numUnused = unused.size();
+		for (int i = 0; i < numUnused; i++){
+			discardConstraint(unused.getQuick(i));
+		}
+		CMConstraint con = constraints.pollExpired(currentTime);
+		while (con != null){
+			//writeToLog("Removing collId " + con.getCollId() + " constraintId " + con.getConId() + " Used? " + con.hasBeenActive());
+			con.expire();
+			discardConstraint(con);
+			con = constraints.pollExpired(currentTime);
 		}
 
-		renderme();
 		if ((currentTime - lastWriteTime) > summaryDelay){
 			outputSummary();
 			outputCellData();
@@ -378,6 +419,22 @@ public class CMSimulation extends DemoApplication{
 		}
 	}
 
+	private long getStartClockTime(){
+		//clock is inherited from DemoApplication
+		if (fixedStep){
+			return newTime;
+		}
+		return clock.getTimeMicroseconds();
+	}
+	
+	private long getNextClockTime(){
+		//Units microseconds
+		if (fixedStep){
+			return newTime + fixedDeltaTime;
+		}
+		return clock.getTimeMicroseconds() * generator.speedUp;
+	}
+
 	@Override
 	public void displayCallback() {
 		gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
@@ -398,41 +455,35 @@ public class CMSimulation extends DemoApplication{
 	}
 	
 	public void removeConstraint(CMConstraint c){
-		dynamicsWorld.removeConstraint(c.getConstraint());
 		constraints.remove(c);
+		discardConstraint(c);
+	}
+	
+	private void discardConstraint(CMConstraint c){
+		//c is already out of the registry
+		dynamicsWorld.removeConstraint(c.getConstraint());
 		c.destroy();
 	}
 	
 	public boolean constraintExists(long collId){
-		int numConstraints = constraints.size();
-		for (int i = 0; i < numConstraints; i++){
-			CMConstraint constraint = constraints.getQuick(i);
-			if (constraint.getCollId() == collId){
-				return (true);
-			}
-		}
-		return (false);
+		return constraints.exists(collId);
 	}
 	
-	public void checkInConstraints(long collId){
-		int numConstraints = constraints.size();
+	public boolean checkInConstraints(long collId){
+		//returns false if the collision has no constraints
+		ObjectArrayList<CMConstraint> collisionConstraints = constraints.getByCollision(collId);
+		if (collisionConstraints == null){
+			return false;
+		}
+		int numConstraints = collisionConstraints.size();
 		for (int i = 0; i < numConstraints; i++){
-			CMConstraint constraint = constraints.getQuick(i);
-			if (constraint.getCollId() == collId){
-				constraint.checkIn();
-			}
+			collisionConstraints.getQuick(i).checkIn();
 		}
+		return true;
 	}
 	
 	public CMConstraint getConstraint(long collId, int conId){
-		int numConstraints = constraints.size();
-		for (int i = 0; i < numConstraints; i++){
-			CMConstraint constraint = constraints.getQuick(i);
-			if (constraint.getCollId() == collId && constraint.getConId() == conId){
-				return constraint;
-			}
-		}
-		return null;
+		return constraints.get(collId, conId);
 	}
 	@Override
 	public void myinit(){
@@ -499,7 +550,15 @@ public class CMSimulation extends DemoApplication{
 	public void addBioObject(CMBioObj obj){
 		//This method adds a wall to the container
 		modelObjects.add(obj);
-		dynamicsWorld.addRigidBody(obj.getRigidBody());
+		//Each object says what it can touch, so the broadphase only makes pairs that matter
+		short group = obj.getCollisionGroup();
+		short mask = obj.getCollisionMask();
+		RigidBody body = obj.getRigidBody();
+		if ((group & CMBioObj.CELL_GROUP) != 0){
+			//The contacts that matter to the biology all have a cell in them
+			body.setCollisionFlags(body.getCollisionFlags() | CollisionFlags.CUSTOM_MATERIAL_CALLBACK);
+		}
+		discreteWorld.addRigidBody(body, group, mask);
 	}
 	
 	public void removeBioObject(CMBioObj obj){
@@ -508,6 +567,14 @@ public class CMSimulation extends DemoApplication{
 		modelObjects.remove(obj);
 	}
 	
+	public CMRandom getRandomStream(int domain){
+		//Each new stream in a domain gets the next index. Streams are handed out while
+		//objects are created, which happens in the same order on every run with this seed
+		long index = streamsIssued[domain];
+		streamsIssued[domain]++;
+		return new CMRandom(generator.seed, domain, index);
+	}
+	
 	public float nextRandomF(){
 		float x = random.nextFloat();
 		//System.out.println(x);
@@ -527,6 +594,14 @@ public class CMSimulation extends DemoApplication{
 		return proteins.size();
 	}
 	
+	public CMMembraneStore getMembraneStore(){
+		//Made when the first cell asks for it, after the proteins have been added
+		if (membraneStore == null){
+			membraneStore = new CMMembraneStore(proteins.size());
+		}
+		return membraneStore;
+	}
+	
 	public CMMembraneProtein getProtein(int index){
 		return proteins.getQuick(index);
 	}
@@ -544,6 +619,25 @@ public class CMSimulation extends DemoApplication{
 		return 0f;
 	}
 	
+	public void getLigandConcentrations(float[] xValues, int count, long time, float[] out, int outOffset){
+		//Fills out[outOffset...] with the concentrations at the first count x values. time is in milliseconds
+		if (assayType == CMAssay.MICROFLUIDIC){
+			float[] dfm = ligandScratch.get();
+			if (dfm.length < count){
+				dfm = new float[count];
+				ligandScratch.set(dfm);
+			}
+			for (int i = 0; i < count; i++){
+				dfm[i] = channel.getDistanceFromMinimum(xValues[i]);
+			}
+			channel.getConcentrations(dfm, count, time, out, outOffset);
+			return;
+		}
+		for (int i = 0; i < count; i++){
+			out[outOffset + i] = 0f;
+		}
+	}
+	
 	public void outputSummary(){
 		//System.out.println("Output Suumary");
 		long nowTimeMS = (currentTime)/1000;
@@ -690,6 +784,18 @@ public class CMSimulation extends DemoApplication{
 		return currentTime;
 	}
 	
+	public long getFrameStepMicroseconds(){
+		//The length of a typical frame. Constraints use it to turn their chance of
+		//breaking each frame into a rate
+		if (fixedStep){
+			return fixedDeltaTime;
+		}
+		if (numFrames > 0 && meanDeltaTime > 0){
+			return (long)meanDeltaTime;
+		}
+		return 1000000/60;
+	}
+	
 	public long getDeltaTimeMilliseconds(){
 		//delta time in Milliseconds
 		return deltaTime/1000;
@@ -703,6 +809,10 @@ public class CMSimulation extends DemoApplication{
 		return generator.motility;
 	}
 	
+	public boolean useSphereCollisions(){
+		return generator.sphereCollisions;
+	}
+	
 	public String getFormattedTime(Long time_ms){
 		Date nowTime = new Date(time_ms/1000);
 		String nowString = summaryFormat.format(nowTime);
@@ -792,6 +902,31 @@ public class CMSimulation extends DemoApplication{
 		if (concentrationSolver != null){
 			concentrationSolver.destroy();
 		}
+		updatePool.shutdown();
+	}
+	
+	private static class UpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int GRAIN = 8; //number of objects one task updates without splitting
+		private ObjectArrayList<CMBioObj> objects;
+		private int start, end;
+		
+		public UpdateTask(ObjectArrayList<CMBioObj> objs, int s, int e){
+			objects = objs;
+			start = s;
+			end = e;
+		}
+		
+		protected void compute(){
+			if (end - start <= GRAIN){
+				for (int i = start; i < end; i++){
+					objects.getQuick(i).updateInternalState();
+				}
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new UpdateTask(objects, start, middle), new UpdateTask(objects, middle, end));
+		}
 	}
 	
 }
\ No newline at end of file
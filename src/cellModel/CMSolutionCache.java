@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CMSolutionCache.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * 
+ */
+package cellModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * @author tagsit
+ * A directory of solved concentration profiles shared between runs.
+ * Each solution is stored in a file named by a hash of the inputs to the solver,
+ * so runs with the same gradient load the solution instead of solving again.
+ * When the files take up more than the maximum size, the least recently used are deleted.
+ */
+public class CMSolutionCache {
+	private static final String SUFFIX = ".sol";
+	
+	private File directory;
+	private long maxBytes;
+	
+	public CMSolutionCache(File dir, long max){
+		directory = dir;
+		maxBytes = max;
+		if (maxBytes > 0 && !directory.isDirectory() && !directory.mkdirs()){
+			System.err.println("Cannot make solution cache directory " + directory + ". Not caching solutions.");
+			maxBytes = 0;
+		}
+	}
+	
+	public boolean isEnabled(){
+		return maxBytes > 0;
+	}
+	
+	public static String makeKey(String description){
+		//description should list every input that changes the solution
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] digest = md.digest(description.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < digest.length; i++){
+				sb.append(String.format("%02x", digest[i] & 0xff));
+			}
+			return sb.toString();
+		}
+		catch(NoSuchAlgorithmException e){
+			throw new RuntimeException(e);
+		}
+		catch(IOException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public File getFile(String key){
+		return new File(directory, key + SUFFIX);
+	}
+	
+	public CMConcentrationTable load(String key){
+		//Returns the mapped solution, or null if it is not in the cache or cannot be read
+		if (!isEnabled()){
+			return null;
+		}
+		File f = getFile(key);
+		if (!f.isFile()){
+			return null;
+		}
+		CMConcentrationTable table = null;
+		try{
+			table = CMConcentrationTable.map(f);
+		}
+		catch(IOException e){
+			System.err.println("Cannot read cached solution " + f + ". " + e.toString());
+			return null;
+		}
+		if (table != null){
+			//Mark it as recently used
+			f.setLastModified(System.currentTimeMillis());
+		}
+		return table;
+	}
+	
+	public File store(String key, long[] times, double[] distances, double[][] solution){
+		//Returns the cached file, or null if it could not be written
+		if (!isEnabled()){
+			return null;
+		}
+		//Write to a temporary file first so other runs never see half a solution
+		File f = getFile(key);
+		File temp = new File(directory, key + "." + System.nanoTime() + ".tmp");
+		try{
+			CMConcentrationTable.write(temp, times, distances, solution);
+			if (!temp.renameTo(f)){
+				temp.delete();
+			}
+		}
+		catch(IOException e){
+			System.err.println("Cannot write cached solution " + f + ". " + e.toString());
+			temp.delete();
+			return null;
+		}
+		evict();
+		return f;
+	}
+	
+	private void evict(){
+		//Delete the least recently used solutions until the cache fits
+		File[] files = directory.listFiles();
+		if (files == null){
+			return;
+		}
+		long total = 0;
+		int numSolutions = 0;
+		for (int i = 0; i < files.length; i++){
+			if (files[i].getName().endsWith(SUFFIX)){
+				files[numSolutions] = files[i];
+				total += files[i].length();
+				numSolutions++;
+			}
+		}
+		if (total <= maxBytes){
+			return;
+		}
+		File[] solutions = Arrays.copyOf(files, numSolutions);
+		Arrays.sort(solutions, new Comparator<File>(){
+			public int compare(File a, File b){
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		for (int i = 0; i < solutions.length && total > maxBytes; i++){
+			long size = solutions[i].length();
+			if (solutions[i].delete()){
+				total -= size;
+			}
+		}
+	}
+}
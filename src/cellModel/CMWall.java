@@ -115,6 +115,10 @@ public class CMWall implements CMBioObj{
 		lamininSurfaceDensity = lamininSurfaceDensity - deltaLaminin;
 	}
 	
+	public void updateInternalState(){
+		//Nothing to do - laminin is updated in updateObject
+	}
+	
 	public Vector3f getColor3Vector(){
 		return new Vector3f(wallColor[0], wallColor[1], wallColor[2]);
 	}
@@ -184,6 +188,15 @@ public class CMWall implements CMBioObj{
 		return toRemove;
 	}
 	
+	public short getCollisionGroup(){
+		return WALL_GROUP;
+	}
+	
+	public short getCollisionMask(){
+		//Walls don't move, so they never touch each other
+		return (short)(ALL_GROUPS ^ WALL_GROUP);
+	}
+	
 	public boolean isBound(){
 		return bound;
 	}
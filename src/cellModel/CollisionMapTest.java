@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: CollisionMapTest.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *
+ */
+package cellModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import com.bulletphysics.util.ObjectArrayList;
+
+/**
+ * @author tagsit
+ * Checks the constraint registry's map from collision id to constraints against a HashMap.
+ * Random puts, removes and gets are made on both, and every key is looked up after each change.
+ * The first part keeps the map small and only uses ids whose slots are next to each other
+ * across the end of the table, so removing shifts entries back around the wrap.
+ * The second part fills the map until it grows, with ids that are both small and large.
+ */
+public class CollisionMapTest {
+	private static Random random = new Random(1L);
+	private static int failures = 0;
+	private static long operations = 0;
+
+	public static void main(String[] args){
+		//Small maps with long runs of ids that wrap around the end of the table
+		int capacity = new CMConstraintRegistry.CollisionMap().capacity();
+		for (int round = 0; round < 2000; round++){
+			long[] pool = wrappingKeys(capacity, 24);
+			run(new CMConstraintRegistry.CollisionMap(), pool, 400, capacity / 2 - 1, true);
+		}
+		//Big maps that grow many times
+		for (int round = 0; round < 20; round++){
+			long[] pool = new long[20000];
+			for (int i = 0; i < pool.length; i++){
+				pool[i] = random.nextBoolean() ? random.nextInt(30000) : random.nextLong();
+			}
+			run(new CMConstraintRegistry.CollisionMap(), pool, 100000, pool.length, false);
+		}
+
+		System.out.println("Operations: " + operations + " Failures: " + failures);
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+		System.exit(0);
+	}
+
+	private static long[] wrappingKeys(int capacity, int count){
+		//Ids whose first slot is within a few slots of the end of the table, on either side
+		int mask = capacity - 1;
+		long[] keys = new long[count];
+		int found = 0;
+		long key = random.nextInt(1000000);
+		while (found < count){
+			int slot = CMConstraintRegistry.CollisionMap.slot(key, mask);
+			if (slot >= capacity - 4 || slot < 3){
+				keys[found++] = key;
+			}
+			key++;
+		}
+		return keys;
+	}
+
+	private static void run(CMConstraintRegistry.CollisionMap map, long[] pool, int steps, int maxSize, boolean checkAll){
+		HashMap<Long, ObjectArrayList<CMConstraint>> expected = new HashMap<Long, ObjectArrayList<CMConstraint>>();
+		ArrayList<Long> present = new ArrayList<Long>();
+		for (int step = 0; step < steps; step++){
+			long key = pool[random.nextInt(pool.length)];
+			int op = random.nextInt(3);
+			if (op == 0 && !expected.containsKey(key) && expected.size() < maxSize){
+				ObjectArrayList<CMConstraint> bucket = new ObjectArrayList<CMConstraint>(1);
+				map.put(key, bucket);
+				expected.put(key, bucket);
+				present.add(key);
+			}
+			else if (op == 1 && present.size() > 0){
+				//remove one that is there, so removing is as common as adding
+				long gone = present.remove(random.nextInt(present.size()));
+				map.remove(gone);
+				expected.remove(gone);
+				check(map, expected, gone);
+			}
+			else if (op == 2){
+				//removing an id that isn't there changes nothing
+				if (!expected.containsKey(key)){
+					map.remove(key);
+				}
+			}
+			operations++;
+			check(map, expected, key);
+			if (checkAll || step % 1000 == 0){
+				for (Long k : present){
+					check(map, expected, k);
+				}
+			}
+		}
+		for (Long k : present){
+			check(map, expected, k);
+		}
+	}
+
+	private static void check(CMConstraintRegistry.CollisionMap map, HashMap<Long, ObjectArrayList<CMConstraint>> expected, long key){
+		if (map.get(key) != expected.get(key) || map.size() != expected.size()){
+			if (failures < 10){
+				System.out.println("Mismatch for id " + key + ": found " + map.get(key) + " expected " + expected.get(key) +
+						" size " + map.size() + " expected " + expected.size());
+			}
+			failures++;
+		}
+	}
+}
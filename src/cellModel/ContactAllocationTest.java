@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: ContactAllocationTest.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *
+ */
+package cellModel;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.BulletGlobals;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.narrowphase.ManifoldPoint;
+import com.bulletphysics.demos.opengl.LWJGL;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+
+import cellModel.shapes.CMGImpactMeshSphere;
+
+/**
+ * @author tagsit
+ * Checks that contacts between cells and the laminin coated floor don't allocate once they
+ * are steady. Every segment of every cell touches the floor over and over, through the contact
+ * queue that Bullet calls. Segments facing the floor bind, then only check in their constraints.
+ * The rest are too far from the floor to bind, so they go through all of collided each time.
+ * Prints the bytes this thread allocated for the repeated contacts, which should be 0.
+ */
+public class ContactAllocationTest {
+
+	public static void main(String[] args){
+		File base = new File(System.getProperty("java.io.tmpdir"), "CM-ContactAllocationTest");
+		CMSimGenerator gen = new CMSimGenerator(base, 1L);
+		gen.headless = true;
+		gen.sphereCollisions = true;
+		gen.fixedTimeStep = 1/60f;
+		gen.endTime = 2;
+		gen.numCells = 8;
+		gen.solutionCacheMB = 0;
+
+		CMSimulation sim = new CMSimulation(LWJGL.getGL(), gen);
+		sim.initPhysics();
+		while (!sim.readyToQuit()){
+			sim.advanceSimulation();
+		}
+
+		//The cells, and the wall they rest on
+		ObjectArrayList<CMSegmentedCell> cells = new ObjectArrayList<CMSegmentedCell>();
+		CMWall floor = null;
+		ObjectArrayList<CollisionObject> objects = sim.getDynamicsWorld().getCollisionObjectArray();
+		for (int i = 0; i < objects.size(); i++){
+			CMBioObj obj = ((CMRigidBody)objects.getQuick(i)).getParent();
+			if (obj instanceof CMSegmentedCell){
+				cells.add((CMSegmentedCell)obj);
+			}
+			else if (obj instanceof CMWall && ((CMWall)obj).isLamininCoated()){
+				floor = (CMWall)obj;
+			}
+		}
+		if (floor == null || cells.size() == 0){
+			System.out.println("No cells or no laminin coated wall. FAILED");
+			System.exit(1);
+		}
+
+		//A contact point at the middle of each segment of each cell
+		int numContacts = 0;
+		for (int i = 0; i < cells.size(); i++){
+			numContacts += cells.getQuick(i).getNumSegments();
+		}
+		ManifoldPoint[] points = new ManifoldPoint[numContacts];
+		CMRigidBody[] cellBodies = new CMRigidBody[numContacts];
+		Vector3f[] vertices = new Vector3f[]{new Vector3f(), new Vector3f(), new Vector3f()};
+		int n = 0;
+		for (int i = 0; i < cells.size(); i++){
+			CMSegmentedCell cell = cells.getQuick(i);
+			CMGImpactMeshSphere shape = (CMGImpactMeshSphere)cell.getCollisionShape();
+			for (int seg = 0; seg < cell.getNumSegments(); seg++){
+				shape.getTriangleVertices(seg, vertices);
+				ManifoldPoint pt = new ManifoldPoint();
+				for (int v = 0; v < 3; v++){
+					pt.localPointA.add(vertices[v]);
+				}
+				pt.localPointA.normalize();
+				pt.localPointA.scale(cell.getRadius());
+				pt.localPointB.set(pt.localPointA);
+				pt.distance1 = 0;
+				points[n] = pt;
+				cellBodies[n] = cell.getRigidBody();
+				n++;
+			}
+		}
+
+		CMContactQueue queue = (CMContactQueue)BulletGlobals.getContactAddedCallback();
+		CMRigidBody floorBody = floor.getRigidBody();
+		int warmup = 1000, repeats = 1000;
+		touch(queue, points, cellBodies, floorBody, warmup);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		//The cost of asking, to take away from the measurement
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+		before = threads.getThreadAllocatedBytes(thread);
+		touch(queue, points, cellBodies, floorBody, repeats);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+		sim.wrapUp();
+		sim.destroy();
+
+		long touches = (long)repeats * numContacts * 2;
+		System.out.println("Contacts: " + touches + " Bytes allocated: " + allocated + " Bytes per contact: " + ((double)allocated / touches));
+		if (allocated > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+		System.exit(0);
+	}
+
+	private static void touch(CMContactQueue queue, ManifoldPoint[] points, CMRigidBody[] cellBodies, CMRigidBody floorBody, int repeats){
+		//Each contact is made with the cell as the first body, then with the floor as the first body
+		for (int r = 0; r < repeats; r++){
+			for (int i = 0; i < points.length; i++){
+				queue.contactAdded(points[i], cellBodies[i], 0, 0, floorBody, 0, 0);
+			}
+			queue.dispatch();
+			for (int i = 0; i < points.length; i++){
+				ManifoldPoint pt = points[i];
+				swap(pt);
+				queue.contactAdded(pt, floorBody, 0, 0, cellBodies[i], 0, 0);
+				swap(pt);
+			}
+			queue.dispatch();
+		}
+	}
+
+	private static void swap(ManifoldPoint pt){
+		//The point as it would be with the bodies the other way round
+		float x = pt.localPointA.x, y = pt.localPointA.y, z = pt.localPointA.z;
+		pt.localPointA.set(pt.localPointB);
+		pt.localPointB.set(x, y, z);
+	}
+}
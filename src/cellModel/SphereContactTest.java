@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2014 Terri A. Grosso, Naralys Batista, Nancy Griffeth
+ * Package: cellModel
+ * File: SphereContactTest.java
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *
+ */
+package cellModel;
+
+import java.io.File;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.demos.opengl.LWJGL;
+import com.bulletphysics.linearmath.Transform;
+import com.bulletphysics.util.ObjectArrayList;
+
+import cellModel.shapes.CMGImpactMeshSphere;
+
+/**
+ * @author tagsit
+ * Runs the microfluidic channel without a display, with cells colliding as spheres
+ * (or as meshes, given the argument mesh). The cells settle onto the laminin coated floor,
+ * so integrin should only bind on the segments that face down.
+ * Prints each cell's bound segments and whether they all do.
+ */
+public class SphereContactTest {
+
+	public static void main(String[] args){
+		File base = new File(System.getProperty("java.io.tmpdir"), "CM-SphereContactTest");
+		CMSimGenerator gen = new CMSimGenerator(base, 1L);
+		gen.headless = true;
+		gen.sphereCollisions = !(args.length > 0 && args[0].equals("mesh"));
+		gen.fixedTimeStep = 1/60f;
+		gen.endTime = 20;
+		gen.numCells = 4;
+		gen.solutionCacheMB = 0;
+
+		CMSimulation sim = new CMSimulation(LWJGL.getGL(), gen);
+		sim.initPhysics();
+		while (!sim.readyToQuit()){
+			sim.advanceSimulation();
+		}
+
+		int integrin = 1; //the proteins are EGFR then integrin
+		int boundSegments = 0, wrongSegments = 0;
+		Transform trans = new Transform();
+		Vector3f[] vertices = new Vector3f[]{new Vector3f(), new Vector3f(), new Vector3f()};
+		Vector3f centroid = new Vector3f();
+		ObjectArrayList<CollisionObject> objects = sim.getDynamicsWorld().getCollisionObjectArray();
+		for (int i = 0; i < objects.size(); i++){
+			CMBioObj obj = ((CMRigidBody)objects.getQuick(i)).getParent();
+			if (!(obj instanceof CMSegmentedCell)){
+				continue;
+			}
+			CMSegmentedCell cell = (CMSegmentedCell)obj;
+			cell.getRigidBody().getMotionState().getWorldTransform(trans);
+			for (int seg = 0; seg < cell.getNumSegments(); seg++){
+				if (cell.getDensity(seg, integrin, false) <= 0){
+					continue;
+				}
+				boundSegments++;
+				//The direction from the center of the cell to the middle of the segment, in the world
+				((CMGImpactMeshSphere)cell.getCollisionShape()).getTriangleVertices(seg, vertices);
+				centroid.set(0, 0, 0);
+				for (int v = 0; v < 3; v++){
+					centroid.add(vertices[v]);
+				}
+				trans.basis.transform(centroid);
+				centroid.normalize();
+				boolean facesFloor = centroid.y < -.5f;
+				if (!facesFloor){
+					wrongSegments++;
+				}
+				System.out.println("Cell " + cell.getID() + " segment " + seg + " bound " + cell.getDensity(seg, integrin, false) + " direction " + centroid + (facesFloor ? "" : " NOT FACING FLOOR"));
+			}
+		}
+		sim.wrapUp();
+		sim.destroy();
+
+		System.out.println("Bound segments: " + boundSegments + " Not facing the floor: " + wrongSegments);
+		if (boundSegments == 0 || wrongSegments > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+		System.exit(0);
+	}
+}
@@ -38,6 +38,11 @@ public class CMGImpactMeshSphere extends GImpactMeshShape{
 	private static int[][] trianglesByEdges;
 	private static int[][] trianglesByVertices;
 	private static TriangleIndexVertexArray[] indexVertexArray;
+	//Geometry of each triangle on the unit sphere, in the order of trianglesByVertices
+	private static float[][] triangleVertices; //three vertices per triangle
+	private static float[][] triangleCentroids;
+	private static float[][] triangleAreas;
+	private static float[][] triangleEdgeNormals; //for each edge, the normal of the plane through it and the center, pointing into the triangle
 	
 	private int detail_level;
 
@@ -47,6 +52,10 @@ public class CMGImpactMeshSphere extends GImpactMeshShape{
 		trianglesByEdges = new int[maxSteps][];
 		trianglesByVertices = new int[maxSteps][];
 		indexVertexArray = new TriangleIndexVertexArray[maxSteps];
+		triangleVertices = new float[maxSteps][];
+		triangleCentroids = new float[maxSteps][];
+		triangleAreas = new float[maxSteps][];
+		triangleEdgeNormals = new float[maxSteps][];
 		initializeTriangles();
 		for (int i = 1; i < maxSteps; i++){
 			growSphere(i);
@@ -90,6 +99,7 @@ public class CMGImpactMeshSphere extends GImpactMeshShape{
 		
 		for (int i = 0; i < maxSteps; i++){
 			makeIndexArray(i);
+			makeTriangleTables(i);
 		}
 		
 		
@@ -496,6 +506,77 @@ public class CMGImpactMeshSphere extends GImpactMeshShape{
 		indexVertexArray[step] = new TriangleIndexVertexArray(numTriangles, indicesBuffer, triangleIndexStride, numVertices, verticesBuffer, vertexStride);
 	}
 	
+	private static void makeTriangleTables(int step){
+		//Store each triangle's geometry so it can be looked up without going through the GImpact shape
+		int numTriangles = trianglesByVertices[step].length/TRIANGLE_INDICES;
+		triangleVertices[step] = new float[numTriangles * TRIANGLE_INDICES * VERTEX_DIM];
+		triangleCentroids[step] = new float[numTriangles * VERTEX_DIM];
+		triangleAreas[step] = new float[numTriangles];
+		triangleEdgeNormals[step] = new float[numTriangles * TRIANGLE_INDICES * VERTEX_DIM];
+		Vector3f ab = new Vector3f();
+		Vector3f ac = new Vector3f();
+		Vector3f crossProd = new Vector3f();
+		Vector3f a = new Vector3f();
+		Vector3f b = new Vector3f();
+		Vector3f c = new Vector3f();
+		for (int i = 0; i < numTriangles; i++){
+			float[] p = new float[TRIANGLE_INDICES * VERTEX_DIM];
+			for (int j = 0; j < TRIANGLE_INDICES; j++){
+				int base = trianglesByVertices[step][i * TRIANGLE_INDICES + j] * VERTEX_DIM;
+				for (int k = 0; k < VERTEX_DIM; k++){
+					p[j * VERTEX_DIM + k] = vertices[step][base + k];
+					triangleVertices[step][(i * TRIANGLE_INDICES + j) * VERTEX_DIM + k] = vertices[step][base + k];
+				}
+			}
+			for (int k = 0; k < VERTEX_DIM; k++){
+				triangleCentroids[step][i * VERTEX_DIM + k] = (float)((p[k] + p[VERTEX_DIM + k] + p[2 * VERTEX_DIM + k])/3.0);
+			}
+			ab.set(p[3] - p[0], p[4] - p[1], p[5] - p[2]);
+			ac.set(p[6] - p[0], p[7] - p[1], p[8] - p[2]);
+			crossProd.cross(ab, ac);
+			triangleAreas[step][i] = crossProd.length()/2f;
+			for (int j = 0; j < TRIANGLE_INDICES; j++){
+				int next = (j + 1) % TRIANGLE_INDICES;
+				int other = (j + 2) % TRIANGLE_INDICES;
+				a.set(p[j * VERTEX_DIM], p[j * VERTEX_DIM + 1], p[j * VERTEX_DIM + 2]);
+				b.set(p[next * VERTEX_DIM], p[next * VERTEX_DIM + 1], p[next * VERTEX_DIM + 2]);
+				c.set(p[other * VERTEX_DIM], p[other * VERTEX_DIM + 1], p[other * VERTEX_DIM + 2]);
+				crossProd.cross(a, b);
+				crossProd.normalize();
+				if (crossProd.dot(c) < 0){
+					crossProd.negate();
+				}
+				int base = (i * TRIANGLE_INDICES + j) * VERTEX_DIM;
+				triangleEdgeNormals[step][base] = crossProd.x;
+				triangleEdgeNormals[step][base + 1] = crossProd.y;
+				triangleEdgeNormals[step][base + 2] = crossProd.z;
+			}
+		}
+	}
+	
+	private static int findInside(int step, int first, int count, float x, float y, float z){
+		//Of the triangles first to first + count - 1, the one the direction (x, y, z) is furthest inside.
+		//A direction is inside a triangle when it is on the inner side of all three edge planes
+		float[] normals = triangleEdgeNormals[step];
+		int best = first;
+		float bestScore = -Float.MAX_VALUE;
+		for (int i = first; i < first + count; i++){
+			float score = Float.MAX_VALUE;
+			for (int j = 0; j < TRIANGLE_INDICES; j++){
+				int base = (i * TRIANGLE_INDICES + j) * VERTEX_DIM;
+				float d = normals[base] * x + normals[base + 1] * y + normals[base + 2] * z;
+				if (d < score){
+					score = d;
+				}
+			}
+			if (score > bestScore){
+				bestScore = score;
+				best = i;
+			}
+		}
+		return best;
+	}
+	
 	public CMGImpactMeshSphere(int dl){
 		super(indexVertexArray[dl]);
 		detail_level = dl;
@@ -505,4 +586,49 @@ public class CMGImpactMeshSphere extends GImpactMeshShape{
 		int numTriangles = trianglesByVertices[detail_level].length/TRIANGLE_INDICES;
 		return numTriangles;
 	}
+	
+	public int getDetailLevel(){
+		return detail_level;
+	}
+	
+	//The triangle methods below give local coordinates scaled by the local scaling,
+	//the same values processAllTriangles passes to its callback
+	
+	public void getTriangleVertices(int triangle, Vector3f[] out){
+		float[] table = triangleVertices[detail_level];
+		Vector3f scale = localScaling;
+		for (int j = 0; j < TRIANGLE_INDICES; j++){
+			int base = (triangle * TRIANGLE_INDICES + j) * VERTEX_DIM;
+			out[j].set(table[base] * scale.x, table[base + 1] * scale.y, table[base + 2] * scale.z);
+		}
+	}
+	
+	public void getTriangleCentroid(int triangle, Vector3f out){
+		float[] table = triangleCentroids[detail_level];
+		int base = triangle * VERTEX_DIM;
+		out.set(table[base] * localScaling.x, table[base + 1] * localScaling.y, table[base + 2] * localScaling.z);
+	}
+	
+	public float getTriangleCentroidX(int triangle){
+		return triangleCentroids[detail_level][triangle * VERTEX_DIM] * localScaling.x;
+	}
+	
+	public int findTriangle(Vector3f localPoint){
+		//The triangle crossed by the line from the center through localPoint, without going through the mesh.
+		//Each triangle at one detail level is split into triangles 4i to 4i+3 at the next,
+		//so start with the 8 triangles of the octahedron and go down one level at a time
+		float x = localPoint.x / localScaling.x;
+		float y = localPoint.y / localScaling.y;
+		float z = localPoint.z / localScaling.z;
+		int triangle = findInside(0, 0, trianglesByVertices[0].length/TRIANGLE_INDICES, x, y, z);
+		for (int step = 1; step <= detail_level; step++){
+			triangle = findInside(step, triangle * 4, 4, x, y, z);
+		}
+		return triangle;
+	}
+	
+	public float getTriangleArea(int triangle){
+		//Assumes the sphere is scaled the same in every direction
+		return triangleAreas[detail_level][triangle] * localScaling.x * localScaling.x;
+	}
 }